@@ -9,9 +9,16 @@ public final class Constants {
 
     public static final String RK_NAME_INDEXED = "_row_key_";
     public static final String PK_NAME_INDEXED = "_p_key";
+    public static final String CK_PREFIX_INDEXED = "_ck_prefix_";
     public static final String PK_NAME_DOC_VAL = "_p_key_val";
     public static final String CF_TS_DOC_VAL = "_cf_ts_val";
     public static final String CF_TS_INDEXED = "_cf_ts";
+    public static final String CF_EXPIRY_DOC_VAL = "_cf_exp_val";
+    public static final String CF_EXPIRY_INDEXED = "_cf_exp";
+    public static final String DEWEY_PREFIX_INDEXED = "_dewey_";
+    public static final String NESTED_PATH_INDEXED = "_nested_path";
+    public static final String AUTOCOMPLETE_SUFFIX_INDEXED = "._autocomplete_";
+    public static final String REVERSED_SUFFIX_INDEXED = "._reversed_";
 
     //lucene options per field
     public static final String striped = "striped";
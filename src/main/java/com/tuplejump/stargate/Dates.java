@@ -8,9 +8,125 @@ import java.util.Locale;
 
 /**
  * User: satya
+ * <p/>
+ * Date formats by name or joda pattern. Formats are compiled once per field and values are parsed with
+ * {@link #parseMillis(String, FormatDateTimeFormatter)}, which has fast paths for the default format.
  */
 public class Dates {
 
+    /**
+     * The format of date fields without one - ISO-8601 dates with an optional time, or epoch millis.
+     */
+    public static final String DEFAULT_FORMAT = "dateOptionalTime";
+
+    public static final FormatDateTimeFormatter DEFAULT_FORMATTER = forPattern(DEFAULT_FORMAT, Locale.US);
+
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * Parses a date value with the formatter of its field. Values in the default format which are all digits are
+     * epoch millis, and the common ISO-8601 forms are parsed without joda, which parses the others.
+     *
+     * @return the date in millis since the epoch, in UTC unless the value has an offset.
+     */
+    public static long parseMillis(String value, FormatDateTimeFormatter formatter) {
+        if (formatter == DEFAULT_FORMATTER) {
+            if (isEpochMillis(value)) return Long.parseLong(value);
+            long millis = isoMillis(value);
+            if (millis != NOT_PARSED) return millis;
+        }
+        return formatter.parser().parseMillis(value);
+    }
+
+    private static boolean isEpochMillis(String value) {
+        int length = value.length();
+        int start = length > 1 && value.charAt(0) == '-' ? 1 : 0;
+        if (length == start || length - start > 18) return false;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the millis of yyyy-MM-dd optionally followed by 'T'HH:mm[:ss[.SSS]] and Z or an offset of
+     * +-HH[:]mm, or NOT_PARSED for any other form or an out of range field.
+     */
+    private static long isoMillis(String value) {
+        int length = value.length();
+        if (length < 10 || value.charAt(4) != '-' || value.charAt(7) != '-') return NOT_PARSED;
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]) return NOT_PARSED;
+        if (month == 2 && day == 29 && !isLeapYear(year)) return NOT_PARSED;
+        long millis = daysFromCivil(year, month, day) * 86400000L;
+        if (length == 10) return millis;
+        if (length < 16 || value.charAt(10) != 'T' || value.charAt(13) != ':') return NOT_PARSED;
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59) return NOT_PARSED;
+        millis += (hour * 60L + minute) * 60000L;
+        int pos = 16;
+        if (pos < length && value.charAt(pos) == ':') {
+            int second = digits(value, pos + 1, 2);
+            if (second < 0 || second > 59) return NOT_PARSED;
+            millis += second * 1000L;
+            pos += 3;
+            if (pos < length && value.charAt(pos) == '.') {
+                int fraction = digits(value, pos + 1, 3);
+                if (fraction < 0) return NOT_PARSED;
+                millis += fraction;
+                pos += 4;
+            }
+        }
+        if (pos == length) return millis;
+        char zone = value.charAt(pos);
+        if (zone == 'Z' && pos + 1 == length) return millis;
+        if (zone != '+' && zone != '-') return NOT_PARSED;
+        int offsetHours = digits(value, pos + 1, 2);
+        int minutesAt = pos + 3 < length && value.charAt(pos + 3) == ':' ? pos + 4 : pos + 3;
+        int offsetMinutes = digits(value, minutesAt, 2);
+        if (minutesAt + 2 != length || offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+            return NOT_PARSED;
+        }
+        long offset = (offsetHours * 60L + offsetMinutes) * 60000L;
+        return zone == '+' ? millis - offset : millis + offset;
+    }
+
+    /**
+     * @return the number in count digits from start, or -1 if they are not all digits.
+     */
+    private static int digits(String value, int start, int count) {
+        if (start + count > value.length()) return -1;
+        int number = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * @return the days since the epoch of a date in the proleptic gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = y / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
     /**
      * Parses a joda based pattern, including some named ones (similar to the built in Joda ISO ones).
      */
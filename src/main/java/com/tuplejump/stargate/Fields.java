@@ -8,7 +8,15 @@ import org.apache.cassandra.db.marshal.CompositeType;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FieldValueFilter;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.join.FixedBitSetCachingWrapperFilter;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 
@@ -16,7 +24,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 import java.util.UUID;
 
 import static com.tuplejump.stargate.Constants.*;
@@ -27,6 +34,35 @@ import static com.tuplejump.stargate.Constants.*;
  * Utility methods to deal in fields.
  */
 public class Fields {
+
+    private static final FieldType DEWEY_FIELD_TYPE = new FieldType();
+
+    static {
+        DEWEY_FIELD_TYPE.setIndexed(true);
+        DEWEY_FIELD_TYPE.setTokenized(true);
+        DEWEY_FIELD_TYPE.setOmitNorms(true);
+        DEWEY_FIELD_TYPE.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        DEWEY_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * The type of the hidden fields with other terms of a field, which are only matched.
+     */
+    private static final FieldType TERMS_FIELD_TYPE = new FieldType();
+
+    static {
+        TERMS_FIELD_TYPE.setIndexed(true);
+        TERMS_FIELD_TYPE.setTokenized(true);
+        TERMS_FIELD_TYPE.setOmitNorms(true);
+        TERMS_FIELD_TYPE.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+        TERMS_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * Only the documents of rows have primary key doc values, the documents of nested objects do not.
+     */
+    private static final Filter ROWS_FILTER = new FixedBitSetCachingWrapperFilter(new FieldValueFilter(PK_NAME_DOC_VAL));
+
     public static SortedDocValues getPKDocValues(IndexSearcher searcher) throws IOException {
         AtomicReader wrapper = SlowCompositeReaderWrapper.wrap(searcher.getIndexReader());
         return wrapper.getSortedDocValues(PK_NAME_DOC_VAL);
@@ -57,6 +93,89 @@ public class Fields {
         return new StringField(PK_NAME_INDEXED, pkValue, Field.Store.YES);
     }
 
+    public static Field rkField(String rkValue) {
+        return new StringField(RK_NAME_INDEXED, rkValue, Field.Store.NO);
+    }
+
+    /**
+     * @param depth  the number of clustering columns in the prefix.
+     * @param prefix the prefix in the form of the primary key name - rowkey:ck1:ck2.
+     */
+    public static Field clusteringPrefixField(int depth, String prefix) {
+        return new StringField(CK_PREFIX_INDEXED + depth, prefix, Field.Store.NO);
+    }
+
+    /**
+     * @return the name of the field with the dewey ids of the json in a column.
+     */
+    public static String deweyFieldName(String columnName) {
+        return DEWEY_PREFIX_INDEXED + columnName;
+    }
+
+    /**
+     * @param json the json in the column, which is analyzed by the DeweyIdAnalyzer of the field.
+     */
+    public static Field deweyField(String columnName, String json) {
+        return new Field(deweyFieldName(columnName), json, DEWEY_FIELD_TYPE);
+    }
+
+    /**
+     * @return the name of the field with the edge n-grams of the terms of a field. It is a suffix of the name so that
+     * the fields of json paths keep the path of their field.
+     */
+    public static String autocompleteFieldName(String name) {
+        return name + AUTOCOMPLETE_SUFFIX_INDEXED;
+    }
+
+    /**
+     * @param value the value of the field, which is analyzed into edge n-grams by the analyzer of the autocomplete field.
+     */
+    public static Field autocompleteField(String name, String value) {
+        return new Field(autocompleteFieldName(name), value, TERMS_FIELD_TYPE);
+    }
+
+    /**
+     * @return the name of the field with the reversed terms of a field.
+     */
+    public static String reversedFieldName(String name) {
+        return name + REVERSED_SUFFIX_INDEXED;
+    }
+
+    /**
+     * @param value the value of the field, which is analyzed into reversed terms by the analyzer of the reversed field.
+     */
+    public static Field reversedField(String name, String value) {
+        return new Field(reversedFieldName(name), value, TERMS_FIELD_TYPE);
+    }
+
+    /**
+     * @param path the nested json path of the object of a nested document.
+     */
+    public static Field nestedPathField(String path) {
+        return new StringField(NESTED_PATH_INDEXED, path, Field.Store.NO);
+    }
+
+    public static Term nestedPathTerm(String path) {
+        return new Term(NESTED_PATH_INDEXED, path);
+    }
+
+    /**
+     * @return a filter of the documents of rows, which are the parents in the blocks of nested documents.
+     */
+    public static Filter rowsFilter() {
+        return ROWS_FILTER;
+    }
+
+    /**
+     * @return true if the field is indexed to delete the document of a row, so that the documents of its nested
+     * objects must have it too.
+     */
+    public static boolean isRowDeletionField(Field field) {
+        String name = field.name();
+        return name.equals(PK_NAME_INDEXED) || name.equals(RK_NAME_INDEXED) || name.startsWith(CK_PREFIX_INDEXED)
+                || name.equals(CF_TS_INDEXED) || name.equals(CF_EXPIRY_INDEXED);
+    }
+
     public static Field textField(String name, String value) {
         return new TextField(name, value, Field.Store.NO);
     }
@@ -86,6 +205,29 @@ public class Fields {
         };
     }
 
+    /**
+     * @param expiry the time in seconds at which all the indexed cells of the document have expired.
+     */
+    public static Field expiryField(long expiry) {
+        return new LongField(CF_EXPIRY_INDEXED, expiry, Field.Store.NO);
+    }
+
+    public static Field expiryDocValues(final long expiry) {
+        return new NumericDocValuesField(CF_EXPIRY_DOC_VAL, expiry) {
+            @Override
+            public String toString() {
+                return String.format("Expiry NumericDocValuesField<%s>", expiry);
+            }
+        };
+    }
+
+    /**
+     * @return a query matching the documents which have expired at the given time in seconds.
+     */
+    public static Query expiredQuery(long nowInSeconds) {
+        return NumericRangeQuery.newLongRange(CF_EXPIRY_INDEXED, 1L, nowInSeconds, true, true);
+    }
+
     public static Term idTerm(String pkString) {
         return new Term(PK_NAME_INDEXED, pkString);
     }
@@ -94,6 +236,20 @@ public class Fields {
         return new Term(RK_NAME_INDEXED, rkString);
     }
 
+    public static Term clusteringPrefixTerm(int depth, String prefix) {
+        return new Term(CK_PREFIX_INDEXED + depth, prefix);
+    }
+
+    /**
+     * @return a query matching the documents with the term which were written at or before the given timestamp.
+     */
+    public static Query deletedBefore(Term term, long timestamp) {
+        BooleanQuery query = new BooleanQuery();
+        query.add(new TermQuery(term), BooleanClause.Occur.MUST);
+        query.add(NumericRangeQuery.newLongRange(CF_TS_INDEXED, null, timestamp, true, true), BooleanClause.Occur.MUST);
+        return query;
+    }
+
     public static Term tsTerm(long ts) {
         BytesRef tsBytes = new BytesRef();
         NumericUtils.longToPrefixCodedBytes(ts, NumericUtils.PRECISION_STEP_DEFAULT, tsBytes);
@@ -130,6 +286,31 @@ public class Fields {
         }
     }
 
+    /**
+     * Doc values written alongside an indexed field so that sorting on the field reads them instead of
+     * un-inverting the field into the FieldCache.
+     * The doc values field has the same name as the indexed field, so a plain SortField on the name picks it up.
+     */
+    public static Field sortDocValuesField(String name, AbstractType type, ByteBuffer byteBufferValue) {
+        CQL3Type cqlType = type.asCQL3Type();
+        if (cqlType == CQL3Type.Native.INT) {
+            return new NumericDocValuesField(name, (Integer) type.compose(byteBufferValue));
+        } else if (cqlType == CQL3Type.Native.VARINT || cqlType == CQL3Type.Native.BIGINT || cqlType == CQL3Type.Native.COUNTER) {
+            return new NumericDocValuesField(name, ((Number) type.compose(byteBufferValue)).longValue());
+        } else if (cqlType == CQL3Type.Native.DECIMAL || cqlType == CQL3Type.Native.DOUBLE) {
+            return new DoubleDocValuesField(name, ((Number) type.compose(byteBufferValue)).doubleValue());
+        } else if (cqlType == CQL3Type.Native.FLOAT) {
+            return new FloatDocValuesField(name, ((Number) type.compose(byteBufferValue)).floatValue());
+        } else if (cqlType == CQL3Type.Native.TIMESTAMP) {
+            return new NumericDocValuesField(name, ((Date) type.compose(byteBufferValue)).getTime());
+        } else {
+            BytesRef bytesRef = new BytesRef(type.getString(byteBufferValue));
+            //sorted doc values have the same length limit as terms.
+            if (bytesRef.length > IndexWriter.MAX_TERM_LENGTH) bytesRef.length = IndexWriter.MAX_TERM_LENGTH;
+            return new SortedDocValuesField(name, bytesRef);
+        }
+    }
+
     public static ByteBuffer defaultValue(AbstractType type) {
         CQL3Type cqlType = type.asCQL3Type();
         if (cqlType == CQL3Type.Native.INT) {
@@ -166,9 +347,7 @@ public class Fields {
         } else if (type == Properties.Type.decimal) {
             return new FloatField(name, Float.parseFloat(value), fieldType);
         } else if (type == Properties.Type.date) {
-            //TODO - set correct locale
-            FormatDateTimeFormatter formatter = Dates.forPattern(value, Locale.US);
-            return new LongField(name, formatter.parser().parseMillis(value), fieldType);
+            return new LongField(name, Dates.parseMillis(value, properties.dateFormatter()), fieldType);
         } else if (type == Properties.Type.bool) {
             Boolean val = Boolean.parseBoolean(value);
             return new Field(name, val.toString(), fieldType);
@@ -0,0 +1,109 @@
+package com.tuplejump.stargate;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * User: satya
+ * <p/>
+ * Guards the state of an index against init and invalidate while it is being written or searched.
+ * Readers (writes to the index, searches) increment a counter in one of several stripes picked by thread, so that
+ * mutation threads on different cores do not share a cache line. Each stripe is padded to its own cache line.
+ * The exclusive side (init, invalidate) is rare: it raises a flag and waits until every stripe drains to zero.
+ * <p/>
+ * Both sides are reentrant like a ReentrantReadWriteLock: a thread holding either side enters the shared side without
+ * waiting, and the exclusive holder may enter the exclusive side again. Like that lock, the shared side cannot be
+ * upgraded - entering the exclusive side while holding the shared side throws IllegalStateException instead of
+ * waiting forever for its own stripe to drain.
+ */
+public class LifecycleGuard {
+
+    //longs per stripe, 128 bytes keeps two stripes off the same (or adjacent prefetched) cache line.
+    private static final int PADDING = 16;
+
+    private static final long WAIT_NANOS = 1000;
+
+    private final int stripes;
+
+    private final AtomicLongArray readers;
+
+    private final ReentrantLock exclusiveLock = new ReentrantLock();
+
+    private volatile boolean exclusive;
+
+    //shared holds of the current thread, so that a nested enter does not wait behind a pending exclusive holder.
+    private final ThreadLocal<int[]> sharedHolds = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    public LifecycleGuard() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public LifecycleGuard(int minStripes) {
+        int n = 1;
+        while (n < minStripes && n < 64) n <<= 1;
+        stripes = n;
+        readers = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * Enters the shared side, waiting while an exclusive holder is active.
+     *
+     * @return the stripe to pass to {@link #exitShared(int)}.
+     */
+    public int enterShared() {
+        int index = ((int) Thread.currentThread().getId() & (stripes - 1)) * PADDING;
+        int[] holds = sharedHolds.get();
+        if (holds[0] > 0 || exclusiveLock.isHeldByCurrentThread()) {
+            //the exclusive side is waiting for this thread or held by it.
+            readers.incrementAndGet(index);
+            holds[0]++;
+            return index;
+        }
+        while (true) {
+            readers.incrementAndGet(index);
+            if (!exclusive) {
+                holds[0]++;
+                return index;
+            }
+            readers.decrementAndGet(index);
+            while (exclusive) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+    }
+
+    public void exitShared(int stripe) {
+        readers.decrementAndGet(stripe);
+        sharedHolds.get()[0]--;
+    }
+
+    /**
+     * Enters the exclusive side, waiting for all shared holders to exit. New shared holders wait till it exits.
+     *
+     * @throws IllegalStateException if the current thread holds the shared side.
+     */
+    public void enterExclusive() {
+        if (sharedHolds.get()[0] > 0 && !exclusiveLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("The shared side cannot be upgraded to the exclusive side");
+        }
+        exclusiveLock.lock();
+        if (exclusiveLock.getHoldCount() > 1) return;
+        exclusive = true;
+        for (int i = 0; i < stripes; i++) {
+            while (readers.get(i * PADDING) != 0) {
+                LockSupport.parkNanos(WAIT_NANOS);
+            }
+        }
+    }
+
+    public void exitExclusive() {
+        if (exclusiveLock.getHoldCount() == 1) exclusive = false;
+        exclusiveLock.unlock();
+    }
+}
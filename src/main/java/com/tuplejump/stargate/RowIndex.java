@@ -2,37 +2,68 @@ package com.tuplejump.stargate;
 
 import com.tuplejump.stargate.cassandra.*;
 import com.tuplejump.stargate.lucene.Indexer;
+import com.tuplejump.stargate.lucene.LearnedMappings;
 import com.tuplejump.stargate.lucene.NearRealTimeIndexer;
 import com.tuplejump.stargate.lucene.Options;
+import com.tuplejump.stargate.lucene.Properties;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.CFDefinition;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.CompactionManager;
+import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.filter.ExtendedFilter;
 import org.apache.cassandra.db.index.PerRowSecondaryIndex;
+import org.apache.cassandra.db.index.SecondaryIndexBuilder;
 import org.apache.cassandra.db.index.SecondaryIndexSearcher;
+import org.apache.cassandra.io.sstable.ReducingKeyIterator;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TopDocs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User: satya
  * A per row lucene index.
  * This index requires Options to be passed as a json using sg_options as key in  the CQL Index options
  */
-public class RowIndex extends PerRowSecondaryIndex {
+public class RowIndex extends PerRowSecondaryIndex implements RowIndexMBean {
     protected static final Logger logger = LoggerFactory.getLogger(RowIndex.class);
+
+    public static final String BUILD_THREADS_PROPERTY = "sg.build.threads";
+
+    public static final double BUILD_ROWS_PER_SEC = Double.parseDouble(System.getProperty("sg.build.rows.per.sec", "0"));
+
+    public static final double CLEANUP_DOCS_PER_SEC = Double.parseDouble(System.getProperty("sg.cleanup.docs.per.sec", "100000"));
+
     Indexer indexer;
     protected ColumnDefinition columnDefinition;
     protected String keyspace;
@@ -40,16 +71,27 @@ public class RowIndex extends PerRowSecondaryIndex {
     protected String primaryColumnName;
     protected String tableName;
     protected Options options;
+    protected LearnedMappings learnedMappings;
     protected RowIndexSupport rowIndexSupport;
     protected CFDefinition tableDefinition;
-    private ReadWriteLock indexLock = new ReentrantReadWriteLock();
-    private final Lock readLock = indexLock.readLock();
-    private final Lock writeLock = indexLock.writeLock();
+    private final LifecycleGuard guard = new LifecycleGuard();
+    //replaced on init and invalidate, as cassandra reuses the instance when an index is dropped and created again.
+    private volatile CountDownLatch indexBuilt = new CountDownLatch(1);
+    private volatile AtomicLong rowsIndexedDuringBuild = new AtomicLong();
+    private final AtomicBoolean cleanupPending = new AtomicBoolean();
+    private int buildThreads = 1;
+    //partition keys written or deleted before a parallel build completes, which the build may also have indexed.
+    private volatile Set<ByteBuffer> changedDuringBuild;
+    private ObjectName mbeanName;
 
     public RowIndexSupport getRowIndexSupport() {
         return rowIndexSupport;
     }
 
+    public Indexer getIndexer() {
+        return indexer;
+    }
+
     public String getPrimaryColumnName() {
         return primaryColumnName;
     }
@@ -60,62 +102,245 @@ public class RowIndex extends PerRowSecondaryIndex {
 
     @Override
     public void index(ByteBuffer rowKey, ColumnFamily cf) {
-        readLock.lock();
+        int stripe = guard.enterShared();
         try {
             rowIndexSupport.indexRow(rowKey, cf);
+            recordChange(rowKey);
         } finally {
-            readLock.unlock();
+            guard.exitShared(stripe);
         }
 
     }
 
     @Override
     public void delete(DecoratedKey key) {
-        readLock.lock();
+        int stripe = guard.enterShared();
         try {
             AbstractType<?> rkValValidator = baseCfs.metadata.getKeyValidator();
             Term term = Fields.rkTerm(rkValValidator.getString(key.key));
             indexer.delete(term);
+            recordChange(key.key);
+            //cassandra cleanup deletes the rows it drops, documents of rows no longer in sstables are left to an index cleanup.
+            if (!cleanupPending.get() && Boolean.TRUE.equals(CompactionManager.isCompactionManager.get())
+                    && !Range.isInRanges(key.token, StorageService.instance.getLocalRanges(keyspace))) {
+                submitCleanup();
+            }
         } finally {
-            readLock.unlock();
+            guard.exitShared(stripe);
         }
     }
 
+    private void recordChange(ByteBuffer rowKey) {
+        Set<ByteBuffer> changed = changedDuringBuild;
+        if (changed != null) changed.add(ByteBufferUtil.clone(rowKey));
+    }
+
+    @Override
+    public long cleanup() {
+        return cleanup(StorageService.instance.getLocalRanges(keyspace));
+    }
+
+    /**
+     * Deletes the documents of rows outside the given ranges and waits for it to complete.
+     *
+     * @return the documents deleted.
+     */
+    public long cleanup(Collection<Range<Token>> ranges) {
+        IndexCleanup cleanup = new IndexCleanup(this, indexer, rowIndexSupport, ranges, CLEANUP_DOCS_PER_SEC);
+        FBUtilities.waitOnFuture(CompactionManager.instance.submitIndexBuild(cleanup));
+        return cleanup.getDeleted();
+    }
+
+    private void submitCleanup() {
+        if (!cleanupPending.compareAndSet(false, true)) return;
+        logger.warn(indexName + " Scheduling index cleanup after a table cleanup");
+        CompactionManager.instance.submitIndexBuild(new IndexCleanup(this, indexer, rowIndexSupport, StorageService.instance.getLocalRanges(keyspace), CLEANUP_DOCS_PER_SEC) {
+            @Override
+            public void build() {
+                try {
+                    super.build();
+                } finally {
+                    cleanupPending.set(false);
+                }
+            }
+        });
+    }
+
     public void delete(String pkString, Long ts) {
-        readLock.lock();
+        int stripe = guard.enterShared();
         try {
             indexer.delete(Fields.idTerm(pkString), Fields.tsTerm(ts));
         } finally {
-            readLock.unlock();
+            guard.exitShared(stripe);
         }
     }
 
 
     @Override
     public SecondaryIndexSearcher createSecondaryIndexSearcher(Set<ByteBuffer> columns) {
-        readLock.lock();
+        int stripe = guard.enterShared();
         try {
-            waitForIndexBuilt();
             return new PerRowSearchSupport(baseCfs.indexManager, this, indexer, columns, columnDefinition.name, this.options);
         } finally {
-            readLock.unlock();
+            guard.exitShared(stripe);
+        }
+    }
+
+    /**
+     * Waits for the index build to complete.
+     *
+     * @return true if the index is built, false if it is still being built after the timeout.
+     */
+    public boolean awaitIndexBuilt(long timeoutMs) {
+        CountDownLatch built = indexBuilt;
+        try {
+            return built.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return built.getCount() == 0;
+        }
+    }
+
+    /**
+     * Called by cassandra when the index build completes, which releases searches waiting for it.
+     */
+    @Override
+    public void setIndexBuilt() {
+        super.setIndexBuilt();
+        indexBuilt.countDown();
+        logger.warn(indexName + " Index built with [" + rowsIndexedDuringBuild.get() + "] rows indexed during the build");
+    }
+
+    /**
+     * Builds the index from the sstables of the table. With more than one build thread, the rows are indexed into
+     * temporary indexes in parallel which are then added to this index, and the partitions changed meanwhile are
+     * reindexed. Otherwise cassandra indexes row by row.
+     */
+    @Override
+    protected void buildIndexBlocking() {
+        Collection<SSTableReader> sstables = baseCfs.markCurrentSSTablesReferenced();
+        final AtomicLong rowsRead = rowsIndexedDuringBuild;
+        try {
+            //counts the rows read by the build, and not the rows written while it runs.
+            ReducingKeyIterator keys = new ReducingKeyIterator(sstables) {
+                @Override
+                public DecoratedKey next() {
+                    rowsRead.incrementAndGet();
+                    return super.next();
+                }
+            };
+            SecondaryIndexBuilder builder;
+            if (changedDuringBuild == null) {
+                logger.warn(indexName + " Building index");
+                builder = new SecondaryIndexBuilder(baseCfs, Collections.singleton(indexName), keys);
+            } else {
+                logger.warn(indexName + " Building index in parallel with [" + buildThreads + "] threads");
+                builder = new ParallelIndexBuilder(this, options, indexer, keys, buildThreads, BUILD_ROWS_PER_SEC);
+            }
+            FBUtilities.waitOnFuture(CompactionManager.instance.submitIndexBuild(builder));
+            if (changedDuringBuild != null) reindexChangedDuringBuild();
+            forceBlockingFlush();
+            setIndexBuilt();
+        } finally {
+            changedDuringBuild = null;
+            SSTableReader.releaseReferences(sstables);
+        }
+    }
+
+    /**
+     * The temporary indexes hold each partition as the build read it, while writes and deletes during the build went
+     * to this index. A changed partition can then be indexed twice, or come back after it was deleted, so all its
+     * documents are deleted and it is indexed again from the table. The last pass holds off writes to this index,
+     * after which changes are no longer recorded.
+     */
+    private void reindexChangedDuringBuild() {
+        Set<ByteBuffer> changed = changedDuringBuild;
+        logger.warn(indexName + " Reindexing [" + changed.size() + "] partitions changed during the build");
+        int stripe = guard.enterShared();
+        try {
+            reindex(changed);
+        } finally {
+            guard.exitShared(stripe);
+        }
+        guard.enterExclusive();
+        try {
+            reindex(changed);
+            changedDuringBuild = null;
+        } finally {
+            guard.exitExclusive();
         }
     }
 
-    private void waitForIndexBuilt() {
-        while (true) {
-            //spin busy
-            //don't give the searcher out till this happens
-            if (isIndexBuilt(columnDefinition.name)) break;
+    private void reindex(Set<ByteBuffer> changed) {
+        AbstractType<?> keyValidator = baseCfs.metadata.getKeyValidator();
+        Iterator<ByteBuffer> keys = changed.iterator();
+        while (keys.hasNext()) {
+            //removed first, so that a write from now on records the key again.
+            ByteBuffer key = keys.next();
+            keys.remove();
+            indexer.delete(Fields.rkTerm(keyValidator.getString(key)));
+            ParallelIndexBuilder.indexKey(this, rowIndexSupport, key);
         }
     }
 
-    public ColumnFamilyStore.AbstractScanIterator getScanIterator(SearchSupport searchSupport, ColumnFamilyStore baseCfs, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean addlFilter) {
+    @Override
+    public boolean isBuilt() {
+        return indexBuilt.getCount() == 0;
+    }
+
+    private void resetIndexBuilt() {
+        if (indexBuilt.getCount() == 0) {
+            indexBuilt = new CountDownLatch(1);
+            rowsIndexedDuringBuild = new AtomicLong();
+        }
+    }
+
+    @Override
+    public long getRowsIndexedDuringBuild() {
+        return rowsIndexedDuringBuild.get();
+    }
+
+    @Override
+    public long getEstimatedRowsRemaining() {
+        if (isBuilt()) return 0;
+        //the build reports its progress in bytes of sstables read.
+        for (Map<String, String> compaction : CompactionManager.instance.getCompactions()) {
+            if (OperationType.INDEX_BUILD.toString().equals(compaction.get("taskType"))
+                    && keyspace.equals(compaction.get("keyspace")) && tableName.equals(compaction.get("columnfamily"))) {
+                long completed = Long.parseLong(compaction.get("completed"));
+                long total = Long.parseLong(compaction.get("total"));
+                if (completed <= 0) return -1;
+                return rowsIndexedDuringBuild.get() * Math.max(0, total - completed) / completed;
+            }
+        }
+        return -1;
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbeanName = new ObjectName("com.tuplejump.stargate:type=RowIndex,keyspace=" + keyspace + ",table=" + tableName + ",index=" + indexName);
+            if (mbs.isRegistered(mbeanName)) mbs.unregisterMBean(mbeanName);
+            mbs.registerMBean(this, mbeanName);
+        } catch (Exception e) {
+            logger.warn(indexName + " Unable to register JMX bean", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            if (mbeanName != null) ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (Exception e) {
+            logger.warn(indexName + " Unable to unregister JMX bean", e);
+        }
+    }
+
+    public ColumnFamilyStore.AbstractScanIterator getScanIterator(SearchSupport searchSupport, ColumnFamilyStore baseCfs, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean addlFilter, boolean partial) {
         try {
             if (tableDefinition.isComposite) {
-                return new WideRowScanner(searchSupport, baseCfs, searcher, filter, topDocs, addlFilter);
+                return new WideRowScanner(searchSupport, baseCfs, searcher, filter, topDocs, addlFilter, partial);
             } else {
-                return new SimpleRowScanner(searchSupport, baseCfs, searcher, filter, topDocs, addlFilter);
+                return new SimpleRowScanner(searchSupport, baseCfs, searcher, filter, topDocs, addlFilter, partial);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -126,8 +351,9 @@ public class RowIndex extends PerRowSecondaryIndex {
 
     @Override
     public void init() {
-        writeLock.lock();
+        guard.enterExclusive();
         try {
+            resetIndexBuilt();
             assert baseCfs != null;
             assert columnDefs != null;
             assert columnDefs.size() > 0;
@@ -140,17 +366,36 @@ public class RowIndex extends PerRowSecondaryIndex {
             primaryColumnName = CFDefinition.definitionType.getString(columnDefinition.name).toLowerCase();
             String optionsJson = columnDefinition.getIndexOptions().get(Constants.INDEX_OPTIONS_JSON);
             this.options = Options.getOptions(primaryColumnName, baseCfs, optionsJson);
+            learnedMappings = new LearnedMappings(LearnedMappings.file(keyspace, tableName, indexName));
+            options.setLearnedMappings(learnedMappings);
 
             logger.warn("Creating new NRT Indexer for {}", indexName);
-            indexer = new NearRealTimeIndexer(this.options.analyzer, keyspace, baseCfs.name, indexName);
+            indexer = new NearRealTimeIndexer(this.options, keyspace, baseCfs.name, indexName);
             if (tableDefinition.isComposite) {
                 rowIndexSupport = new WideRowIndexSupport(options, indexer, baseCfs);
             } else {
                 rowIndexSupport = new SimpleRowIndexSupport(options, indexer, baseCfs);
             }
+            File offlineMarker = OfflineIndexBuilder.builtMarker(keyspace, tableName, indexName);
+            if (offlineMarker.exists()) {
+                //built by the OfflineIndexBuilder, so cassandra does not need to build it.
+                logger.warn(indexName + " Found index built offline");
+                setIndexBuilt();
+                FileUtils.delete(offlineMarker);
+            } else if (isIndexBuilt(columnDefinition.name)) {
+                indexBuilt.countDown();
+            }
+            buildThreads = Integer.getInteger(BUILD_THREADS_PROPERTY, 1);
+            if (buildThreads > 1 && indexBuilt.getCount() > 0) {
+                //recorded from now, as the build also reads the rows written before it starts.
+                changedDuringBuild = Collections.newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
+            }
+            registerMBean();
 
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         } finally {
-            writeLock.unlock();
+            guard.exitExclusive();
         }
     }
 
@@ -158,6 +403,13 @@ public class RowIndex extends PerRowSecondaryIndex {
     @Override
     public void validateOptions() throws ConfigurationException {
         assert columnDefs != null && columnDefs.size() == 1;
+        String optionsJson = columnDefs.iterator().next().getIndexOptions().get(Constants.INDEX_OPTIONS_JSON);
+        try {
+            Properties mapping = Options.jsonMapper.readValue(optionsJson, Properties.class);
+            mapping.getIndexWriterSettings().validate();
+        } catch (Exception e) {
+            throw new ConfigurationException("Invalid " + Constants.INDEX_OPTIONS_JSON + " - " + e.getMessage());
+        }
     }
 
     @Override
@@ -222,29 +474,32 @@ public class RowIndex extends PerRowSecondaryIndex {
 
     @Override
     public void invalidate() {
-        writeLock.lock();
+        guard.enterExclusive();
         try {
             if (indexer != null) {
                 logger.warn("Removing NRT Indexer for {}", indexName);
                 indexer.removeIndex();
                 indexer = null;
+                learnedMappings.delete();
             }
+            unregisterMBean();
+            resetIndexBuilt();
             setIndexRemoved();
         } finally {
-            writeLock.unlock();
+            guard.exitExclusive();
         }
     }
 
     @Override
     public void truncateBlocking(long l) {
-        readLock.lock();
+        int stripe = guard.enterShared();
         try {
             if (indexer != null) {
                 indexer.truncate(l);
                 logger.warn(indexName + " Truncated index {}.", indexName);
             }
         } finally {
-            readLock.unlock();
+            guard.exitShared(stripe);
         }
     }
 
@@ -0,0 +1,36 @@
+package com.tuplejump.stargate;
+
+/**
+ * User: satya
+ * <p/>
+ * JMX view of a RowIndex. Registered as com.tuplejump.stargate:type=RowIndex,keyspace=..,table=..,index=..
+ */
+public interface RowIndexMBean {
+
+    /**
+     * @return true once the index build has completed and searches see all the rows of the table.
+     */
+    public boolean isBuilt();
+
+    /**
+     * @return the rows the index build has read from the sstables of the table. Rows written while it runs are not counted.
+     */
+    public long getRowsIndexedDuringBuild();
+
+    /**
+     * @return the estimated rows the running build still has to index, 0 once built and -1 if not known yet.
+     */
+    public long getEstimatedRowsRemaining();
+
+    /**
+     * @return the RAM held by the index in bytes.
+     */
+    public long getLiveSize();
+
+    /**
+     * Deletes the documents of rows in token ranges this node no longer owns, and waits for it to complete.
+     *
+     * @return the documents deleted.
+     */
+    public long cleanup();
+}
@@ -0,0 +1,141 @@
+package com.tuplejump.stargate.cassandra;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.tuplejump.stargate.Constants;
+import com.tuplejump.stargate.Fields;
+import com.tuplejump.stargate.lucene.Indexer;
+import com.tuplejump.stargate.lucene.SearcherCallback;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.compaction.CompactionInfo;
+import org.apache.cassandra.db.compaction.CompactionInterruptedException;
+import org.apache.cassandra.db.compaction.OperationType;
+import org.apache.cassandra.db.index.SecondaryIndex;
+import org.apache.cassandra.db.index.SecondaryIndexBuilder;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * User: satya
+ * <p/>
+ * Deletes the documents of rows whose token is outside the ranges this node owns, as nodetool cleanup does for
+ * sstables after the ring changes. The token of each distinct primary key in a segment is computed once from the
+ * primary key doc values, and only the documents of keys outside the ranges are read to delete them.
+ * <p/>
+ * It runs on the compaction executor like an index build, so it is listed as a CLEANUP by nodetool compactionstats
+ * and stopped with nodetool stop CLEANUP. The documents examined per second can be limited so that searches are not starved.
+ */
+public class IndexCleanup extends SecondaryIndexBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(IndexCleanup.class);
+
+    private final SecondaryIndex index;
+
+    private final ColumnFamilyStore cfs;
+
+    private final Indexer indexer;
+
+    private final RowIndexSupport support;
+
+    private final Collection<Range<Token>> ranges;
+
+    private final RateLimiter rateLimiter;
+
+    private volatile long examined;
+
+    private volatile long total;
+
+    private long deleted;
+
+    public IndexCleanup(SecondaryIndex index, Indexer indexer, RowIndexSupport support, Collection<Range<Token>> ranges, double docsPerSec) {
+        super(index.getBaseCfs(), Collections.singleton(index.getIndexName()), null);
+        this.index = index;
+        this.cfs = index.getBaseCfs();
+        this.indexer = indexer;
+        this.support = support;
+        this.ranges = ranges;
+        this.rateLimiter = docsPerSec > 0 ? RateLimiter.create(docsPerSec) : null;
+    }
+
+    @Override
+    public CompactionInfo getCompactionInfo() {
+        return new CompactionInfo(cfs.metadata, OperationType.CLEANUP, examined, total);
+    }
+
+    /**
+     * @return the documents deleted by the last run.
+     */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public void build() {
+        final String indexName = index.getIndexName();
+        logger.warn(indexName + " SG Index - Cleaning up documents outside [" + ranges.size() + "] local ranges");
+        deleted = indexer.search(new SearcherCallback<Long>() {
+            @Override
+            public Long doWithSearcher(IndexSearcher searcher) throws IOException {
+                total = searcher.getIndexReader().maxDoc();
+                long deleted = 0;
+                for (AtomicReaderContext context : searcher.getIndexReader().leaves()) {
+                    deleted += cleanup(context.reader());
+                }
+                return deleted;
+            }
+        });
+        indexer.commit();
+        logger.warn(indexName + " SG Index - Cleanup deleted [" + deleted + "] documents of [" + examined + "]");
+    }
+
+    private long cleanup(AtomicReader reader) throws IOException {
+        SortedDocValues pkValues = reader.getSortedDocValues(Constants.PK_NAME_DOC_VAL);
+        if (pkValues == null) {
+            examined += reader.maxDoc();
+            return 0;
+        }
+        //documents of one row share the ord of its primary key, so each token is computed once per segment.
+        FixedBitSet notOwned = new FixedBitSet(pkValues.getValueCount());
+        BytesRef ref = new BytesRef();
+        boolean anyNotOwned = false;
+        for (int ord = 0; ord < pkValues.getValueCount(); ord++) {
+            pkValues.lookupOrd(ord, ref);
+            ByteBuffer partitionKey = support.partitionKey(ByteBuffer.wrap(ref.bytes, ref.offset, ref.length));
+            if (!Range.isInRanges(cfs.partitioner.getToken(partitionKey), ranges)) {
+                notOwned.set(ord);
+                anyNotOwned = true;
+            }
+        }
+        if (!anyNotOwned) {
+            examined += reader.maxDoc();
+            return 0;
+        }
+        Bits liveDocs = reader.getLiveDocs();
+        long deleted = 0;
+        for (int doc = 0; doc < reader.maxDoc(); doc++) {
+            if (isStopRequested())
+                throw new CompactionInterruptedException(getCompactionInfo());
+            if (rateLimiter != null) rateLimiter.acquire();
+            examined++;
+            if (liveDocs != null && !liveDocs.get(doc)) continue;
+            int ord = pkValues.getOrd(doc);
+            if (ord < 0 || !notOwned.get(ord)) continue;
+            String pkName = reader.document(doc, Collections.singleton(Constants.PK_NAME_INDEXED)).get(Constants.PK_NAME_INDEXED);
+            indexer.delete(Fields.idTerm(pkName));
+            deleted++;
+        }
+        return deleted;
+    }
+}
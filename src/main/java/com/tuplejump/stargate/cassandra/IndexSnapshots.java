@@ -0,0 +1,135 @@
+package com.tuplejump.stargate.cassandra;
+
+import com.tuplejump.stargate.Utils;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * User: satya
+ * <p/>
+ * Index files in the snapshots of a table. A snapshot of an index is kept in the snapshot directory of its table
+ * under sgindex/indexName, so nodetool clearsnapshot removes it with the sstables.
+ * <p/>
+ * An index is restored from a snapshot with the node stopped, along with the sstables of the same snapshot:
+ * <pre>
+ * IndexSnapshots keyspace table indexName snapshotTag
+ * </pre>
+ * The restored index is marked as built offline, so the node opens it without building it again.
+ */
+public class IndexSnapshots {
+    private static final Logger logger = LoggerFactory.getLogger(IndexSnapshots.class);
+
+    public static final String SNAPSHOT_SUBDIR = "sgindex";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * @return the directory of an index in a snapshot of its table.
+     */
+    public static File indexDir(File snapshotDir, String indexName) {
+        return new File(new File(snapshotDir, SNAPSHOT_SUBDIR), indexName);
+    }
+
+    /**
+     * @return the snapshot directories of a table by tag. Only the first data directory with a tag is returned.
+     */
+    public static Map<String, File> snapshots(String keyspace, String table) {
+        Map<String, File> snapshots = new TreeMap<>();
+        for (File cfDir : Directories.create(keyspace, table).getCFDirectories()) {
+            File[] tagDirs = new File(cfDir, Directories.SNAPSHOT_SUBDIR).listFiles();
+            if (tagDirs == null) continue;
+            for (File tagDir : tagDirs) {
+                if (tagDir.isDirectory() && !snapshots.containsKey(tagDir.getName())) {
+                    snapshots.put(tagDir.getName(), tagDir);
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * @param tag the tag of a snapshot, or null for the live sstables.
+     * @return the generation of the latest sstable of a table or of its snapshot, 0 if there is none.
+     */
+    public static int latestGeneration(String keyspace, String table, String tag) {
+        Directories.SSTableLister lister = Directories.create(keyspace, table).sstableLister().skipTemporary(true);
+        if (tag != null) lister.snapshots(tag);
+        int latest = 0;
+        for (Descriptor descriptor : lister.list().keySet()) {
+            latest = Math.max(latest, descriptor.generation);
+        }
+        return latest;
+    }
+
+    /**
+     * Hard links the files into a new directory, or copies them where the directories are on different file systems.
+     * The files are linked into a temporary directory which is renamed at the end, so the new directory is complete if it exists.
+     */
+    public static void link(File fromDir, Collection<String> fileNames, File toDir) throws IOException {
+        File tmpDir = new File(toDir.getParentFile(), toDir.getName() + TMP_SUFFIX);
+        if (tmpDir.exists()) FileUtils.deleteRecursive(tmpDir);
+        Files.createDirectories(tmpDir.toPath());
+        for (String fileName : fileNames) {
+            Path from = new File(fromDir, fileName).toPath();
+            Path to = new File(tmpDir, fileName).toPath();
+            try {
+                Files.createLink(to, from);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(tmpDir.toPath(), toDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces an index with its snapshot. The node must be stopped.
+     *
+     * @return the number of index files restored.
+     */
+    public static int restore(String keyspace, String table, String indexName, String tag) throws IOException {
+        File snapshotDir = snapshots(keyspace, table).get(tag);
+        File from = snapshotDir == null ? null : indexDir(snapshotDir, indexName);
+        if (from == null || !from.isDirectory()) {
+            throw new IllegalArgumentException("No snapshot [" + tag + "] of index " + indexName + " on " + keyspace + "." + table);
+        }
+        File dir = Utils.getDirectory(keyspace, table, indexName);
+        logger.warn(indexName + " SG Index - Restoring [" + dir.getAbsolutePath() + "] from snapshot [" + from.getAbsolutePath() + "]");
+        if (dir.exists()) FileUtils.deleteRecursive(dir);
+        dir.getParentFile().mkdirs();
+        String[] fileNames = from.list();
+        link(from, Arrays.asList(fileNames), dir);
+        //the node marks the index built when it opens it, as for an index built offline.
+        File marker = OfflineIndexBuilder.builtMarker(keyspace, table, indexName);
+        Files.write(marker.toPath(), tag.getBytes(StandardCharsets.UTF_8));
+        return fileNames.length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: IndexSnapshots <keyspace> <table> <indexName> <snapshotTag>");
+            System.exit(1);
+        }
+        //loads the cassandra.yaml of the node, which is skipped once in client mode.
+        DatabaseDescriptor.getAllDataFileLocations();
+        Config.setClientMode(true);
+        int files = restore(args[0], args[1], args[2], args[3]);
+        System.out.println("Restored " + files + " files of index " + args[2] + " from snapshot " + args[3]);
+        System.exit(0);
+    }
+}
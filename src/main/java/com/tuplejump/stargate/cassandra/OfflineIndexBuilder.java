@@ -0,0 +1,226 @@
+package com.tuplejump.stargate.cassandra;
+
+import com.tuplejump.stargate.Utils;
+import com.tuplejump.stargate.lucene.BulkIndexer;
+import com.tuplejump.stargate.lucene.Options;
+import com.tuplejump.stargate.lucene.Properties;
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Row;
+import org.apache.cassandra.db.TreeMapBackedSortedColumns;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.SSTable;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.sstable.SSTableScanner;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.MergeIterator;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.sorter.SortingMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * User: satya
+ * <p/>
+ * Builds an index from sstable files without a running node. The rows of all the sstables are merged by key as
+ * cassandra reads them, deleted and expired data is dropped, and each row is written with the same RowIndexSupport
+ * as the live index. The index is written to the directory the node uses for it, along with a marker file.
+ * When the node next opens the index and finds the marker, it marks the index built instead of building it again.
+ * <p/>
+ * It runs with the cassandra.yaml of the node (-Dcassandra.config) so the partitioner and the index directory
+ * (sg.index.dir or the first data directory) are the same as on the node:
+ * <pre>
+ * OfflineIndexBuilder keyspace table.cql indexColumn indexName sg_options.json sstableDirOrDataFile...
+ * </pre>
+ * table.cql holds the CREATE TABLE statement of the table and sg_options.json the options of the index.
+ */
+public class OfflineIndexBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(OfflineIndexBuilder.class);
+
+    public static final String BUILT_MARKER_SUFFIX = ".offline";
+
+    protected final CFMetaData metadata;
+
+    protected final IPartitioner partitioner;
+
+    protected final Options options;
+
+    protected final String indexName;
+
+    public OfflineIndexBuilder(CFMetaData metadata, IPartitioner partitioner, String columnName, String indexName, String optionsJson) {
+        this.metadata = metadata;
+        this.partitioner = partitioner;
+        this.indexName = indexName;
+        this.options = Options.getOptions(columnName.toLowerCase(), metadata, optionsJson);
+    }
+
+    /**
+     * @return the file which marks an index built offline and not yet opened by the node.
+     */
+    public static File builtMarker(String keyspace, String table, String indexName) throws IOException {
+        File dir = Utils.getDirectory(keyspace, table, indexName);
+        return new File(dir.getParentFile(), indexName + BUILT_MARKER_SUFFIX);
+    }
+
+    /**
+     * Replaces the index with one built from the given sstables.
+     *
+     * @param dataFiles the Data.db components of the sstables.
+     * @return the number of rows indexed.
+     */
+    public long build(Collection<File> dataFiles) throws IOException {
+        File dir = Utils.getDirectory(metadata.ksName, metadata.cfName, indexName);
+        File marker = builtMarker(metadata.ksName, metadata.cfName, indexName);
+        if (marker.exists()) FileUtils.delete(marker);
+        dir.mkdirs();
+        logger.warn(indexName + " SG Offline build - Writing index to [" + dir.getAbsolutePath() + "] from [" + dataFiles.size() + "] sstables");
+
+        IndexWriterConfig config = new IndexWriterConfig(Properties.luceneVersion, options.analyzer);
+        options.primary.getIndexWriterSettings().apply(config);
+        if (options.indexSort != null) {
+            config.setMergePolicy(new SortingMergePolicy(config.getMergePolicy(), options.indexSort));
+        }
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        BulkIndexer indexer = new BulkIndexer(new IndexWriter(FSDirectory.open(dir), config), options.analyzer);
+        RowIndexSupport support = metadata.getCfDef().isComposite ?
+                new WideRowIndexSupport(options, indexer, metadata, partitioner) : new SimpleRowIndexSupport(options, indexer, metadata, partitioner);
+
+        List<SSTableReader> sstables = new ArrayList<>(dataFiles.size());
+        List<SSTableScanner> scanners = new ArrayList<>(dataFiles.size());
+        long rows = 0;
+        try {
+            for (File dataFile : dataFiles) {
+                Descriptor descriptor = Descriptor.fromFilename(dataFile.getPath());
+                SSTableReader sstable = SSTableReader.open(descriptor, SSTable.componentsFor(descriptor), metadata, partitioner);
+                sstables.add(sstable);
+                scanners.add(sstable.getScanner());
+            }
+            int gcBefore = (int) (System.currentTimeMillis() / 1000);
+            Iterator<Row> merged = MergeIterator.get(scanners, new Comparator<OnDiskAtomIterator>() {
+                @Override
+                public int compare(OnDiskAtomIterator o1, OnDiskAtomIterator o2) {
+                    return o1.getKey().compareTo(o2.getKey());
+                }
+            }, new RowReducer());
+            while (merged.hasNext()) {
+                Row row = merged.next();
+                ColumnFamily live = ColumnFamilyStore.removeDeleted(row.cf, gcBefore);
+                if (live == null) continue;
+                ColumnFamily indexed = live.cloneMeShallow();
+                for (Column column : live) {
+                    if (indexes(support, column)) indexed.addColumn(column);
+                }
+                if (indexed.getColumnCount() == 0) continue;
+                support.indexRow(row.key.key, indexed);
+                if (++rows % 100000 == 0) {
+                    logger.warn(indexName + " SG Offline build - Indexed [" + rows + "] rows");
+                }
+            }
+            indexer.commit();
+        } finally {
+            for (SSTableScanner scanner : scanners) {
+                FileUtils.closeQuietly(scanner);
+            }
+            SSTableReader.releaseReferences(sstables);
+            indexer.close();
+        }
+        Files.write(marker.toPath(), String.valueOf(rows).getBytes(StandardCharsets.UTF_8));
+        logger.warn(indexName + " SG Offline build - Indexed [" + rows + "] rows");
+        return rows;
+    }
+
+    protected boolean indexes(RowIndexSupport support, Column column) {
+        String name = support.getActualColumnName(column.name()).trim().toLowerCase();
+        return options.getFields().containsKey(name);
+    }
+
+    /**
+     * Merges the versions of one row from all the sstables.
+     */
+    class RowReducer extends MergeIterator.Reducer<OnDiskAtomIterator, Row> {
+        DecoratedKey key;
+        ColumnFamily cf;
+
+        @Override
+        public void reduce(OnDiskAtomIterator current) {
+            if (cf == null) {
+                key = current.getKey();
+                cf = TreeMapBackedSortedColumns.factory.create(metadata);
+            }
+            cf.delete(current.getColumnFamily());
+            while (current.hasNext()) {
+                cf.addAtom(current.next());
+            }
+        }
+
+        @Override
+        protected Row getReduced() {
+            return new Row(key, cf);
+        }
+
+        @Override
+        protected void onKeyChange() {
+            key = null;
+            cf = null;
+        }
+    }
+
+    static List<File> dataFiles(String path) {
+        File file = new File(path);
+        List<File> dataFiles = new ArrayList<>();
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    if (child.getName().endsWith("-" + Component.DATA.name())) dataFiles.add(child);
+                }
+            }
+        } else {
+            dataFiles.add(file);
+        }
+        return dataFiles;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.err.println("Usage: OfflineIndexBuilder <keyspace> <table.cql> <indexColumn> <indexName> <sg_options.json> <sstableDirOrDataFile>...");
+            System.exit(1);
+        }
+        //loads the cassandra.yaml of the node, which is skipped once in client mode.
+        IPartitioner partitioner = DatabaseDescriptor.getPartitioner();
+        //sstables are read without the system keyspace of a node.
+        Config.setClientMode(true);
+        String keyspace = args[0];
+        String tableCql = new String(Files.readAllBytes(new File(args[1]).toPath()), StandardCharsets.UTF_8);
+        String optionsJson = new String(Files.readAllBytes(new File(args[4]).toPath()), StandardCharsets.UTF_8);
+        List<File> dataFiles = new ArrayList<>();
+        for (int i = 5; i < args.length; i++) {
+            dataFiles.addAll(dataFiles(args[i]));
+        }
+        CFMetaData metadata = CFMetaData.compile(tableCql, keyspace);
+        OfflineIndexBuilder builder = new OfflineIndexBuilder(metadata, partitioner, args[2], args[3], optionsJson);
+        long rows = builder.build(dataFiles);
+        System.out.println("Indexed " + rows + " rows into " + Utils.getDirectory(keyspace, metadata.cfName, args[3]).getAbsolutePath());
+        System.exit(0);
+    }
+}
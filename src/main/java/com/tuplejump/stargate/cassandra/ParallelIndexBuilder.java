@@ -0,0 +1,216 @@
+package com.tuplejump.stargate.cassandra;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tuplejump.stargate.Utils;
+import com.tuplejump.stargate.lucene.BulkIndexer;
+import com.tuplejump.stargate.lucene.Indexer;
+import com.tuplejump.stargate.lucene.Options;
+import com.tuplejump.stargate.lucene.Properties;
+import org.apache.cassandra.db.Column;
+import org.apache.cassandra.db.ColumnFamily;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.compaction.CompactionInterruptedException;
+import org.apache.cassandra.db.index.SecondaryIndex;
+import org.apache.cassandra.db.index.SecondaryIndexBuilder;
+import org.apache.cassandra.io.sstable.ReducingKeyIterator;
+import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.service.pager.QueryPagers;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * User: satya
+ * <p/>
+ * Builds an index from the sstables of its table with several threads.
+ * The keys are read in token order and handed out in contiguous batches, so each thread indexes its own token
+ * sub-ranges into its own temporary lucene directory. When all keys are indexed, the temporary indexes are added to
+ * the live index with IndexWriter.addIndexes and removed.
+ * <p/>
+ * Rows written while the build runs still go to the live index. The RowIndex records their partitions and reindexes
+ * them once the temporary indexes are added, so that they are neither indexed twice nor brought back after a delete.
+ * The build can be throttled to a number of rows per second across all threads so that reads are not starved.
+ */
+public class ParallelIndexBuilder extends SecondaryIndexBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelIndexBuilder.class);
+
+    public static final int BATCH_SIZE = 128;
+
+    public static final int PAGE_SIZE = 10000;
+
+    public static final double MIN_RAM_BUFFER_SIZE_MB = 16;
+
+    private static final List<DecoratedKey> END = Collections.emptyList();
+
+    private final SecondaryIndex index;
+
+    private final ColumnFamilyStore cfs;
+
+    private final Options options;
+
+    private final Indexer indexer;
+
+    private final ReducingKeyIterator iter;
+
+    private final int threads;
+
+    private final RateLimiter rateLimiter;
+
+    public ParallelIndexBuilder(SecondaryIndex index, Options options, Indexer indexer, ReducingKeyIterator iter, int threads, double rowsPerSec) {
+        super(index.getBaseCfs(), Collections.singleton(index.getIndexName()), iter);
+        this.index = index;
+        this.cfs = index.getBaseCfs();
+        this.options = options;
+        this.indexer = indexer;
+        this.iter = iter;
+        this.threads = threads;
+        this.rateLimiter = rowsPerSec > 0 ? RateLimiter.create(rowsPerSec) : null;
+    }
+
+    @Override
+    public void build() {
+        String indexName = index.getIndexName();
+        logger.warn(indexName + " SG Index - Building with [" + threads + "] threads");
+        BlockingQueue<List<DecoratedKey>> batches = new ArrayBlockingQueue<>(threads * 4);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<BulkIndexer> parts = new ArrayList<>(threads);
+        List<File> partDirs = new ArrayList<>(threads);
+        List<Directory> dirs = new ArrayList<>(threads);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SGIndex - Builder - %d").build());
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                File partDir = Utils.getDirectory(cfs.metadata.ksName, cfs.name, indexName + "_build_" + i);
+                partDirs.add(partDir);
+                BulkIndexer part = openPart(partDir);
+                parts.add(part);
+                futures.add(workers.submit(worker(part, batches, error)));
+            }
+            List<DecoratedKey> batch = new ArrayList<>(BATCH_SIZE);
+            while (iter.hasNext() && error.get() == null) {
+                if (isStopRequested())
+                    throw new CompactionInterruptedException(getCompactionInfo());
+                batch.add(iter.next());
+                if (batch.size() == BATCH_SIZE) {
+                    put(batches, batch, error);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) put(batches, batch, error);
+            for (int i = 0; i < threads; i++) {
+                put(batches, END, error);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (error.get() != null) throw new RuntimeException(error.get());
+
+            //addIndexes needs the write lock of each temporary index, so the writers are closed first.
+            for (BulkIndexer part : parts) {
+                part.commit();
+                part.close();
+            }
+            parts.clear();
+            for (File partDir : partDirs) {
+                dirs.add(FSDirectory.open(partDir));
+            }
+            indexer.addIndexes(dirs.toArray(new Directory[dirs.size()]));
+            logger.warn(indexName + " SG Index - Built with [" + threads + "] threads");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException | IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            workers.shutdownNow();
+            for (BulkIndexer part : parts) {
+                try {
+                    part.close();
+                } catch (Exception e) {
+                    logger.warn(indexName + " Unable to close temporary index", e);
+                }
+            }
+            for (Directory dir : dirs) {
+                FileUtils.closeQuietly(dir);
+            }
+            for (File partDir : partDirs) {
+                if (partDir.exists()) FileUtils.deleteRecursive(partDir);
+            }
+            FileUtils.closeQuietly(iter);
+        }
+    }
+
+    private BulkIndexer openPart(File partDir) throws IOException {
+        if (partDir.exists()) FileUtils.deleteRecursive(partDir);
+        //the writers share the RAM buffer of the index.
+        double ramBufferSizeMB = Math.max(MIN_RAM_BUFFER_SIZE_MB, options.primary.getIndexWriterSettings().getRamBufferSizeMB() / threads);
+        IndexWriterConfig config = new IndexWriterConfig(Properties.luceneVersion, options.analyzer);
+        options.primary.getIndexWriterSettings().apply(config);
+        config.setRAMBufferSizeMB(ramBufferSizeMB);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        return new BulkIndexer(new IndexWriter(FSDirectory.open(partDir), config), options.analyzer);
+    }
+
+    private void put(BlockingQueue<List<DecoratedKey>> batches, List<DecoratedKey> batch, AtomicReference<Throwable> error) throws InterruptedException {
+        //workers which failed stop taking batches.
+        while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (error.get() != null) return;
+        }
+    }
+
+    private Callable<Void> worker(final BulkIndexer part, final BlockingQueue<List<DecoratedKey>> batches, final AtomicReference<Throwable> error) {
+        final RowIndexSupport support = cfs.metadata.getCfDef().isComposite ?
+                new WideRowIndexSupport(options, part, cfs) : new SimpleRowIndexSupport(options, part, cfs);
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    while (true) {
+                        List<DecoratedKey> batch = batches.take();
+                        if (batch == END || error.get() != null) return null;
+                        for (DecoratedKey key : batch) {
+                            if (rateLimiter != null) rateLimiter.acquire();
+                            indexKey(index, support, key.key);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return null;
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                    return null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads a partition from the table a page at a time and indexes its indexed columns.
+     */
+    public static void indexKey(SecondaryIndex index, RowIndexSupport support, ByteBuffer key) {
+        Iterator<ColumnFamily> pages = QueryPagers.pageRowLocally(index.getBaseCfs(), key, PAGE_SIZE);
+        while (pages.hasNext()) {
+            ColumnFamily cf = pages.next();
+            //only the indexed columns, as cassandra does when it builds an index.
+            ColumnFamily indexed = cf.cloneMeShallow();
+            for (Column column : cf) {
+                if (index.indexes(column.name())) indexed.addColumn(column);
+            }
+            support.indexRow(key, indexed);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.tuplejump.stargate.cassandra;
 import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.RowIndex;
 import com.tuplejump.stargate.Utils;
+import com.tuplejump.stargate.lucene.ExpiryFilter;
 import com.tuplejump.stargate.lucene.Indexer;
 import com.tuplejump.stargate.lucene.Options;
 import com.tuplejump.stargate.lucene.Properties;
@@ -18,10 +19,13 @@ import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.thrift.IndexExpression;
 import org.apache.cassandra.thrift.IndexOperator;
 import org.apache.cassandra.utils.Pair;
+import org.apache.lucene.index.sorter.EarlyTerminatingSortingCollector;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -47,21 +51,31 @@ public class PerRowSearchSupport extends SearchSupport {
     @Override
     public List<Row> search(ExtendedFilter mainFilter) {
         try {
-            assert currentIndex.isIndexBuilt(primaryColName);
+            boolean partial = false;
+            if (!currentIndex.awaitIndexBuilt(options.primary.getBuildWaitMs())) {
+                if (options.primary.getWhileBuilding() == Properties.WhileBuilding.fail) {
+                    throw new IllegalStateException("Index " + currentIndex.getIndexName() + " is still being built");
+                }
+                partial = true;
+            }
             List<IndexExpression> clause = mainFilter.getClause();
             if (logger.isDebugEnabled())
                 logger.debug("All IndexExprs {}", clause);
             Pair<Query, Sort> queryAndSort = getQuery(matchThisIndex(clause));
             //This is mainly to allow data ranges to occur on searches with range and data together.
             ExtendedFilter filter = ExtendedFilter.create(baseCfs, mainFilter.dataRange, null, mainFilter.maxRows(), false, mainFilter.timestamp);
-            return getRows(filter, queryAndSort, false);
+            return getRows(filter, queryAndSort, false, partial);
         } catch (Exception e) {
             if (currentIndex.isMetaColumn()) {
-                logger.error("Exception occurred while querying", e);
                 Row row = getErrorRow(baseCfs, currentIndex, e);
-                if (row != null) {
+                //cassandra runs a search per token range when it does not merge the ranges of a node, which depends on
+                //the read latency seen by the dynamic snitch. Only the range with the key of the error row returns it.
+                if (row != null && mainFilter.dataRange.contains(row.key)) {
+                    logger.error("Exception occurred while querying", e);
                     return Collections.singletonList(row);
                 } else {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Exception occurred while querying", e);
                     return Collections.EMPTY_LIST;
                 }
             } else {
@@ -70,7 +84,7 @@ public class PerRowSearchSupport extends SearchSupport {
         }
     }
 
-    protected List<Row> getRows(final ExtendedFilter filter, final Pair<Query, Sort> query, final boolean needsFiltering) {
+    protected List<Row> getRows(final ExtendedFilter filter, final Pair<Query, Sort> query, final boolean needsFiltering, final boolean partial) {
         final SearchSupport searchSupport = this;
         SearcherCallback<List<Row>> sc = new SearcherCallback<List<Row>>() {
             @Override
@@ -82,12 +96,14 @@ public class PerRowSearchSupport extends SearchSupport {
                 } else {
                     Utils.SimpleTimer timer2 = Utils.getStartedTimer(SearchSupport.logger);
                     int maxResults = filter.maxRows();
-                    TopDocs topDocs = searcher.searchAfter(null, query.left, null, maxResults, query.right, true, false);
+                    //documents expired by TTL are dropped here rather than after reading their rows.
+                    Query unexpired = new FilteredQuery(query.left, new ExpiryFilter(filter.timestamp / 1000), FilteredQuery.QUERY_FIRST_FILTER_STRATEGY);
+                    TopDocs topDocs = topDocs(searcher, unexpired, query.right, maxResults);
                     timer2.endLogTime("For TopDocs search for -" + topDocs.totalHits + " results");
                     if (SearchSupport.logger.isDebugEnabled()) {
                         SearchSupport.logger.debug(String.format("Search results [%s]", topDocs.totalHits));
                     }
-                    ColumnFamilyStore.AbstractScanIterator iter = searchResultsIterator(searchSupport, baseCfs, searcher, filter, topDocs, needsFiltering);
+                    ColumnFamilyStore.AbstractScanIterator iter = searchResultsIterator(searchSupport, baseCfs, searcher, filter, topDocs, needsFiltering, partial);
                     //takes care of paging.
                     results = baseCfs.filter(iter, filter);
                 }
@@ -99,6 +115,23 @@ public class PerRowSearchSupport extends SearchSupport {
         return indexer.search(sc);
     }
 
+    /**
+     * When the query sort is the index sort, segments already sorted by a merge stop collecting after maxResults hits.
+     */
+    protected TopDocs topDocs(IndexSearcher searcher, Query query, Sort sort, int maxResults) throws IOException {
+        return topDocs(searcher, query, sort, indexer.getIndexSort(), maxResults);
+    }
+
+    static TopDocs topDocs(IndexSearcher searcher, Query query, Sort sort, Sort indexSort, int maxResults) throws IOException {
+        if (indexSort == null || !indexSort.equals(sort)) {
+            return searcher.searchAfter(null, query, null, maxResults, sort, true, false);
+        }
+        int numHits = Math.min(maxResults, Math.max(1, searcher.getIndexReader().maxDoc()));
+        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, true, true, false, false);
+        searcher.search(query, new EarlyTerminatingSortingCollector(collector, sort, numHits));
+        return collector.topDocs();
+    }
+
     protected IndexExpression matchThisIndex(List<IndexExpression> clause) {
         for (IndexExpression expression : clause) {
             ColumnDefinition cfDef = baseCfs.metadata.getColumnDefinition(expression.column_name);
@@ -121,8 +154,8 @@ public class PerRowSearchSupport extends SearchSupport {
     }
 
     @Override
-    protected ColumnFamilyStore.AbstractScanIterator searchResultsIterator(SearchSupport searchSupport, ColumnFamilyStore baseCfs, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering) throws IOException {
-        return currentIndex.getScanIterator(searchSupport, baseCfs, searcher, filter, topDocs, needsFiltering);
+    protected ColumnFamilyStore.AbstractScanIterator searchResultsIterator(SearchSupport searchSupport, ColumnFamilyStore baseCfs, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering, boolean partial) throws IOException {
+        return currentIndex.getScanIterator(searchSupport, baseCfs, searcher, filter, topDocs, needsFiltering, partial);
     }
 
     @Override
@@ -5,13 +5,17 @@ import com.tuplejump.stargate.lucene.Indexer;
 import com.tuplejump.stargate.lucene.Options;
 import com.tuplejump.stargate.lucene.Properties;
 import com.tuplejump.stargate.lucene.json.JsonDocument;
+import com.tuplejump.stargate.lucene.json.DynamicMappingException;
 import com.tuplejump.stargate.lucene.json.StreamingJsonDocument;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.CQL3Type;
 import org.apache.cassandra.db.Column;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.ExpiringColumn;
 import org.apache.cassandra.db.marshal.*;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.slf4j.Logger;
@@ -20,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -29,19 +34,32 @@ import java.util.List;
 public abstract class RowIndexSupport {
     protected Options options;
     protected Indexer indexer;
-    protected ColumnFamilyStore table;
+    protected CFMetaData metadata;
+    protected IPartitioner partitioner;
     FieldType tsFieldType;
 
     public RowIndexSupport(Options options, Indexer indexer, ColumnFamilyStore table) {
+        this(options, indexer, table.metadata, table.partitioner);
+    }
+
+    /**
+     * Needs only the schema and the partitioner of the table, so rows can also be indexed without a running node.
+     */
+    public RowIndexSupport(Options options, Indexer indexer, CFMetaData metadata, IPartitioner partitioner) {
         this.options = options;
         this.indexer = indexer;
-        this.table = table;
+        this.metadata = metadata;
+        this.partitioner = partitioner;
         tsFieldType = Properties.fieldType(Properties.ID_FIELD, CQL3Type.Native.BIGINT.getType());
     }
 
 
     protected static final Logger logger = LoggerFactory.getLogger(RowIndexSupport.class);
 
+    protected static final long NO_EXPIRY_CELLS = -1;
+
+    protected static final long NEVER_EXPIRES = 0;
+
     /**
      * Writes one row to the lucene index.
      *
@@ -60,9 +78,15 @@ public abstract class RowIndexSupport {
      */
     public abstract String getActualColumnName(ByteBuffer name);
 
+    /**
+     * @param primaryKey the primary key of a document, as stored in its doc values.
+     * @return the partition key of the row of the document.
+     */
+    public abstract ByteBuffer partitionKey(ByteBuffer primaryKey);
+
 
     protected List<Field> collectionFields(CollectionType validator, String colName, Column column) {
-        CompositeType baseComparator = (CompositeType) table.getComparator();
+        CompositeType baseComparator = (CompositeType) metadata.comparator;
         ByteBuffer[] components = baseComparator.split(column.name());
         List<Field> fields = new ArrayList<>();
         FieldType[] fieldTypesArr = options.collectionFieldTypes.get(colName);
@@ -87,6 +111,23 @@ public abstract class RowIndexSupport {
         return Arrays.asList(Fields.idDocValues(rkValValidator, pk), idField);
     }
 
+    /**
+     * Folds the expiry of an indexed cell into the expiry of its document, which is when all its indexed cells have
+     * expired. A document with a cell which does not expire never expires.
+     *
+     * @param expiry the expiry so far, NO_EXPIRY_CELLS before the first cell.
+     * @return the expiry in seconds, or NEVER_EXPIRES.
+     */
+    protected static long expiry(long expiry, Column column) {
+        if (expiry == NEVER_EXPIRES || !(column instanceof ExpiringColumn)) return NEVER_EXPIRES;
+        return Math.max(expiry, column.getLocalDeletionTime());
+    }
+
+    protected List<Field> expiryFields(long expiry) {
+        if (expiry <= 0) return Collections.emptyList();
+        return Arrays.asList(Fields.expiryDocValues(expiry), Fields.expiryField(expiry));
+    }
+
     protected List<Field> tsFields(long ts) {
         Field tsField = Fields.tsField(ts, tsFieldType);
         return Arrays.asList(Fields.tsDocValues(ts), tsField);
@@ -97,15 +138,66 @@ public abstract class RowIndexSupport {
         if (fieldType != null) {
             Field field = Fields.field(name, columnDefinition.getValidator(), value, fieldType);
             fields.add(field);
+            Properties properties = options.getFields().get(name);
+            if (properties != null && properties.isSortable()) {
+                fields.add(Fields.sortDocValuesField(name, columnDefinition.getValidator(), value));
+            }
+            if (properties != null && properties.getAutocomplete() != null) {
+                fields.add(Fields.autocompleteField(name, columnDefinition.getValidator().getString(value)));
+            }
+            if (properties != null && properties.isReverseIndex()) {
+                fields.add(Fields.reversedField(name, columnDefinition.getValidator().getString(value)));
+            }
+        }
+    }
+
+    /**
+     * Writes the document of a row. The documents of its nested json objects are written before it in one block,
+     * with the fields by which the row is deleted so that deleting the row deletes its whole block.
+     *
+     * @param fields the fields of the row.
+     * @param nested the fields of each nested json object of the row.
+     */
+    protected void insert(List<Field> fields, List<List<Field>> nested) {
+        if (nested.isEmpty()) {
+            indexer.insert(fields);
+            return;
+        }
+        List<List<Field>> block = new ArrayList<>(nested.size() + 1);
+        for (List<Field> nestedFields : nested) {
+            for (Field field : fields) {
+                if (Fields.isRowDeletionField(field)) nestedFields.add(field);
+            }
+            block.add(nestedFields);
         }
+        block.add(fields);
+        indexer.insertBlock(block);
     }
 
-    protected void addFields(Column column, String name, List<Field> fields, ColumnDefinition columnDefinition) {
+    protected void addFields(Column column, String name, List<Field> fields, List<List<Field>> nested, ColumnDefinition columnDefinition) {
         boolean isObject = options.isObject(name);
         if (isObject) {
-            String value = UTF8Type.instance.compose(column.value());
-            JsonDocument document = new StreamingJsonDocument(value, options.primary, name);
-            fields.addAll(document.getFields());
+            try {
+                JsonDocument document;
+                if (columnDefinition.getValidator() instanceof BytesType) {
+                    //Smile encoded json, or text json if the bytes have no Smile header.
+                    document = new StreamingJsonDocument(column.value(), options.primary, name);
+                } else {
+                    String value = UTF8Type.instance.compose(column.value());
+                    document = new StreamingJsonDocument(value, options.primary, name);
+                    if (options.getFields().get(name).isDeweyIds()) {
+                        fields.add(Fields.deweyField(name, value));
+                    }
+                }
+                fields.addAll(document.getFields());
+                nested.addAll(document.getNestedFields());
+                if (!document.getLearnedTypes().isEmpty()) {
+                    options.learn(name, document.getLearnedTypes());
+                }
+            } catch (DynamicMappingException e) {
+                //a write cannot be rejected by the index, so a document with fields not allowed by its mapping is not indexed.
+                logger.error("SG Index - Column [" + name + "] not indexed - " + e.getMessage());
+            }
         } else if (columnDefinition.getValidator().isCollection()) {
             List<Field> fieldsForField = collectionFields((CollectionType) columnDefinition.getValidator(), name, column);
             fields.addAll(fieldsForField);
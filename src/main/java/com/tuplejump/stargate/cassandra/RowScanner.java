@@ -40,9 +40,11 @@ public abstract class RowScanner extends ColumnFamilyStore.AbstractScanIterator
     SortedDocValues rowKeyValues;
     NumericDocValues tsValues;
     SearchSupport searchSupport;
+    boolean partial;
 
-    public RowScanner(SearchSupport searchSupport, ColumnFamilyStore table, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering) throws Exception {
+    public RowScanner(SearchSupport searchSupport, ColumnFamilyStore table, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering, boolean partial) throws Exception {
         this.searchSupport = searchSupport;
+        this.partial = partial;
         this.table = table;
         this.searcher = searcher;
         this.filter = filter;
@@ -121,7 +123,7 @@ public abstract class RowScanner extends ColumnFamilyStore.AbstractScanIterator
                 boolean isIndexColumn = indexColumnName.equals(thisColName);
                 if (isIndexColumn) {
                     logger.warn("Primary col name {}", UTF8Type.instance.compose(column.name()));
-                    Column scoreColumn = new Column(column.name(), UTF8Type.instance.decompose("{\"score\":" + score.toString() + "}"));
+                    Column scoreColumn = new Column(column.name(), UTF8Type.instance.decompose(metaJson(score)));
                     cleanColumnFamily.addColumn(scoreColumn);
                     metaColAdded = true;
                 } else {
@@ -129,14 +131,21 @@ public abstract class RowScanner extends ColumnFamilyStore.AbstractScanIterator
                 }
             }
             if (!metaColAdded && firstColumn != null) {
-                addMetaColumn(firstColumn, indexColumnName, score, cleanColumnFamily);
+                addMetaColumn(firstColumn, indexColumnName, metaJson(score), cleanColumnFamily);
             }
         }
         return new Row(dk, cleanColumnFamily);
     }
 
 
-    protected abstract void addMetaColumn(Column firstColumn, String colName, Float score, ColumnFamily cleanColumnFamily);
+    /**
+     * The value of the meta column. Results served while the index is still being built are flagged as partial.
+     */
+    protected String metaJson(Float score) {
+        return partial ? "{\"score\":" + score.toString() + ",\"partial\":true}" : "{\"score\":" + score.toString() + "}";
+    }
+
+    protected abstract void addMetaColumn(Column firstColumn, String colName, String metaJson, ColumnFamily cleanColumnFamily);
 
     protected abstract Pair<DecoratedKey, IDiskAtomFilter> getFilterAndKey(ByteBuffer primaryKey, SliceQueryFilter sliceQueryFilter);
 
@@ -72,7 +72,7 @@ public abstract class SearchSupport extends SecondaryIndexSearcher {
     }
 
 
-    protected abstract ColumnFamilyStore.AbstractScanIterator searchResultsIterator(SearchSupport searchSupport, ColumnFamilyStore baseCfs, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering) throws IOException;
+    protected abstract ColumnFamilyStore.AbstractScanIterator searchResultsIterator(SearchSupport searchSupport, ColumnFamilyStore baseCfs, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering, boolean partial) throws IOException;
 
     public abstract boolean deleteIfNotLatest(long ts, String pkString, ColumnFamily cf) throws IOException;
 }
@@ -4,6 +4,7 @@ import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.Utils;
 import com.tuplejump.stargate.lucene.Indexer;
 import com.tuplejump.stargate.lucene.Options;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.CFDefinition;
 import org.apache.cassandra.db.Column;
@@ -11,10 +12,12 @@ import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.Term;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -29,10 +32,14 @@ public class SimpleRowIndexSupport extends RowIndexSupport {
         super(options, indexer, table);
     }
 
+    public SimpleRowIndexSupport(Options options, Indexer indexer, CFMetaData metadata, IPartitioner partitioner) {
+        super(options, indexer, metadata, partitioner);
+    }
+
     @Override
     public void indexRow(ByteBuffer rowKey, ColumnFamily cf) {
-        AbstractType rkValValidator = table.metadata.getKeyValidator();
-        DecoratedKey dk = table.partitioner.decorateKey(rowKey);
+        AbstractType rkValValidator = metadata.getKeyValidator();
+        DecoratedKey dk = partitioner.decorateKey(rowKey);
         Term term = Fields.idTerm(rkValValidator.getString(rowKey));
         if (cf.isMarkedForDelete()) {
             if (logger.isDebugEnabled()) {
@@ -43,22 +50,28 @@ public class SimpleRowIndexSupport extends RowIndexSupport {
         } else {
             Iterator<Column> cols = cf.iterator();
             List<Field> fields = new LinkedList<>();
+            List<List<Field>> nested = new ArrayList<>();
+            long expiry = NO_EXPIRY_CELLS;
             while (cols.hasNext()) {
                 Column iColumn = cols.next();
                 ByteBuffer colName = iColumn.name();
-                ColumnDefinition columnDefinition = table.metadata.getColumnDefinitionFromColumnName(colName);
+                ColumnDefinition columnDefinition = metadata.getColumnDefinitionFromColumnName(colName);
                 String name = CFDefinition.definitionType.getString(colName);
                 if (logger.isDebugEnabled()) {
                     logger.debug("Got column name {} from CF", name);
                 }
-                if (options.shouldIndex(name))
-                    addFields(iColumn, name, fields, columnDefinition);
+                if (options.shouldIndex(name)) {
+                    addFields(iColumn, name, fields, nested, columnDefinition);
+                    expiry = expiry(expiry, iColumn);
+                }
             }
             if (logger.isDebugEnabled())
                 logger.debug("Column family update -" + dk);
             fields.addAll(idFields(rkValValidator.getString(rowKey), rowKey, rkValValidator));
+            fields.add(Fields.rkField(rkValValidator.getString(rowKey)));
             fields.addAll(tsFields(cf.maxTimestamp()));
-            indexer.insert(fields);
+            fields.addAll(expiryFields(expiry));
+            insert(fields, nested);
         }
     }
 
@@ -68,5 +81,10 @@ public class SimpleRowIndexSupport extends RowIndexSupport {
         return Utils.getColumnNameStr(name);
     }
 
+    @Override
+    public ByteBuffer partitionKey(ByteBuffer primaryKey) {
+        return primaryKey;
+    }
+
 
 }
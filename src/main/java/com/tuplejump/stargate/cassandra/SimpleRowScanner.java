@@ -21,13 +21,13 @@ import java.nio.ByteBuffer;
  */
 public class SimpleRowScanner extends RowScanner {
 
-    public SimpleRowScanner(SearchSupport searchSupport, ColumnFamilyStore table, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering) throws Exception {
-        super(searchSupport, table, searcher, filter, topDocs, needsFiltering);
+    public SimpleRowScanner(SearchSupport searchSupport, ColumnFamilyStore table, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering, boolean partial) throws Exception {
+        super(searchSupport, table, searcher, filter, topDocs, needsFiltering, partial);
     }
 
     @Override
-    protected void addMetaColumn(Column firstColumn, String colName, Float score, ColumnFamily cleanColumnFamily) {
-        Column scoreColumn = new Column(UTF8Type.instance.decompose(colName), UTF8Type.instance.decompose("{\"score\":" + score.toString() + "}"));
+    protected void addMetaColumn(Column firstColumn, String colName, String metaJson, ColumnFamily cleanColumnFamily) {
+        Column scoreColumn = new Column(UTF8Type.instance.decompose(colName), UTF8Type.instance.decompose(metaJson));
         cleanColumnFamily.addColumn(scoreColumn);
     }
 
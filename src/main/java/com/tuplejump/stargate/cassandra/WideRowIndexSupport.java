@@ -4,15 +4,19 @@ import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.Utils;
 import com.tuplejump.stargate.lucene.Indexer;
 import com.tuplejump.stargate.lucene.Options;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.CFDefinition;
 import org.apache.cassandra.db.Column;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.DeletionTime;
+import org.apache.cassandra.db.RangeTombstone;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.ColumnToCollectionType;
 import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.utils.Pair;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
@@ -31,46 +35,101 @@ public class WideRowIndexSupport extends RowIndexSupport {
         super(options, indexer, table);
     }
 
+    public WideRowIndexSupport(Options options, Indexer indexer, CFMetaData metadata, IPartitioner partitioner) {
+        super(options, indexer, metadata, partitioner);
+    }
+
     @Override
     public void indexRow(ByteBuffer rowKey, ColumnFamily cf) {
         Map<ByteBuffer, List<Field>> primaryKeysVsFields = new HashMap<>();
-        DecoratedKey dk = table.partitioner.decorateKey(rowKey);
+        Map<ByteBuffer, List<List<Field>>> primaryKeysVsNested = new HashMap<>();
+        DecoratedKey dk = partitioner.decorateKey(rowKey);
         Map<ByteBuffer, Long> timestamps = new HashMap<>();
-        AbstractType rowKeyValidator = table.getComparator();
+        Map<ByteBuffer, Long> expiries = new HashMap<>();
+        AbstractType rowKeyValidator = metadata.comparator;
         Iterator<Column> cols = cf.iterator();
         Map<ByteBuffer, String> pkNames = new HashMap<>();
         while (cols.hasNext()) {
             Column column = cols.next();
-            addColumn(rowKey, pkNames, primaryKeysVsFields, timestamps, column);
+            addColumn(rowKey, pkNames, primaryKeysVsFields, primaryKeysVsNested, timestamps, expiries, column);
         }
-        addToIndex(cf, dk, pkNames, primaryKeysVsFields, timestamps, rowKeyValidator);
+        addToIndex(cf, dk, pkNames, primaryKeysVsFields, primaryKeysVsNested, timestamps, expiries, rowKeyValidator);
     }
 
-    private void addToIndex(ColumnFamily cf, DecoratedKey dk, Map<ByteBuffer, String> pkNames, Map<ByteBuffer, List<Field>> primaryKeysVsFields, Map<ByteBuffer, Long> timestamps, AbstractType rkValValidator) {
+    private void addToIndex(ColumnFamily cf, DecoratedKey dk, Map<ByteBuffer, String> pkNames, Map<ByteBuffer, List<Field>> primaryKeysVsFields, Map<ByteBuffer, List<List<Field>>> primaryKeysVsNested, Map<ByteBuffer, Long> timestamps, Map<ByteBuffer, Long> expiries, AbstractType rkValValidator) {
+        if (cf.isMarkedForDelete()) {
+            if (logger.isDebugEnabled())
+                logger.debug("Column family marked for delete -" + dk);
+            deleteTombstoned(dk.key, cf);
+        }
+        String rkName = metadata.getKeyValidator().getString(dk.key);
         for (Map.Entry<ByteBuffer, List<Field>> entry : primaryKeysVsFields.entrySet()) {
             ByteBuffer pk = entry.getKey();
             String pkName = pkNames.get(pk);
             List<Field> fields = entry.getValue();
-            Term term = Fields.idTerm(pkName);
-            if (cf.isMarkedForDelete() && options.collectionFieldTypes.isEmpty()) {
-                if (logger.isDebugEnabled())
-                    logger.debug("Column family marked for delete -" + dk);
-                if (logger.isDebugEnabled())
-                    logger.debug(String.format("RowIndex delete - Key [%s]", term));
-                indexer.delete(term);
-            } else {
+            if (logger.isDebugEnabled())
+                logger.debug("Column family update -" + dk);
+            fields.addAll(idFields(pkName, pk, rkValValidator));
+            fields.add(Fields.rkField(rkName));
+            fields.addAll(tsFields(timestamps.get(pk)));
+            fields.addAll(expiryFields(expiries.get(pk)));
+            insert(fields, primaryKeysVsNested.get(pk));
+        }
+    }
+
+    /**
+     * Deletes the documents of CQL rows removed by a partition deletion or by a range tombstone over a clustering
+     * prefix, which were written at or before the deletion. Range tombstones over a collection are not row deletions.
+     */
+    private void deleteTombstoned(ByteBuffer rowKey, ColumnFamily cf) {
+        String rkName = metadata.getKeyValidator().getString(rowKey);
+        DeletionTime partitionDeletion = cf.deletionInfo().getTopLevelDeletion();
+        if (partitionDeletion.markedForDeleteAt > Long.MIN_VALUE) {
+            Term term = Fields.rkTerm(rkName);
+            if (logger.isDebugEnabled())
+                logger.debug(String.format("RowIndex delete - Partition [%s]", term));
+            indexer.delete(Fields.deletedBefore(term, partitionDeletion.markedForDeleteAt));
+        }
+        if (!cf.deletionInfo().hasRanges()) return;
+        CompositeType baseComparator = (CompositeType) metadata.comparator;
+        int prefixSize = clusteringPrefixSize(baseComparator);
+        Iterator<RangeTombstone> ranges = cf.deletionInfo().rangeIterator();
+        while (ranges.hasNext()) {
+            RangeTombstone range = ranges.next();
+            ByteBuffer[] start = baseComparator.split(range.min);
+            ByteBuffer[] end = baseComparator.split(range.max);
+            if (start.length == 0 || start.length > prefixSize || !Arrays.equals(start, end)) {
                 if (logger.isDebugEnabled())
-                    logger.debug("Column family update -" + dk);
-                fields.addAll(idFields(pkName, pk, rkValValidator));
-                fields.addAll(tsFields(timestamps.get(pk)));
-                indexer.insert(fields);
+                    logger.debug("RowIndex ignoring range tombstone which is not over a clustering prefix -" + range);
+                continue;
             }
+            String prefix = clusteringPrefix(rkName, baseComparator, start, start.length);
+            //a tombstone over the whole clustering key deletes one CQL row.
+            Term term = start.length == prefixSize ? Fields.idTerm(prefix) : Fields.clusteringPrefixTerm(start.length, prefix);
+            if (logger.isDebugEnabled())
+                logger.debug(String.format("RowIndex delete - Clustering prefix [%s]", term));
+            indexer.delete(Fields.deletedBefore(term, range.data.markedForDeleteAt));
         }
     }
 
-    private void addColumn(ByteBuffer rowKey, Map<ByteBuffer, String> pkNames, Map<ByteBuffer, List<Field>> primaryKeysVsFields, Map<ByteBuffer, Long> timestamps, Column column) {
+    private int clusteringPrefixSize(CompositeType baseComparator) {
+        return baseComparator.types.size() - (metadata.getCfDef().hasCollections ? 2 : 1);
+    }
+
+    /**
+     * @return the clustering prefix of the given depth in the form of the primary key name - rowkey:ck1:ck2.
+     */
+    private static String clusteringPrefix(String rkName, CompositeType baseComparator, ByteBuffer[] components, int depth) {
+        StringBuilder sb = new StringBuilder(rkName);
+        for (int i = 0; i < depth; i++) {
+            sb.append(':').append(baseComparator.types.get(i).compose(components[i]));
+        }
+        return sb.toString();
+    }
+
+    private void addColumn(ByteBuffer rowKey, Map<ByteBuffer, String> pkNames, Map<ByteBuffer, List<Field>> primaryKeysVsFields, Map<ByteBuffer, List<List<Field>>> primaryKeysVsNested, Map<ByteBuffer, Long> timestamps, Map<ByteBuffer, Long> expiries, Column column) {
         ByteBuffer columnNameBuf = column.name();
-        Pair<Pair<CompositeType.Builder, StringBuilder>, String> primaryKeyAndName = primaryKeyAndActualColumnName(true, table, rowKey, column);
+        Pair<Pair<CompositeType.Builder, StringBuilder>, String> primaryKeyAndName = primaryKeyAndActualColumnName(true, metadata, rowKey, column);
         String actualColName = primaryKeyAndName.right;
         if (logger.isTraceEnabled())
             logger.trace("Got column name {} from CF", actualColName);
@@ -85,24 +144,41 @@ public class WideRowIndexSupport extends RowIndexSupport {
             }
             fields = new LinkedList<>();
             primaryKeysVsFields.put(primaryKey, fields);
+            primaryKeysVsNested.put(primaryKey, new ArrayList<List<Field>>());
             timestamps.put(primaryKey, 0l);
+            expiries.put(primaryKey, NO_EXPIRY_CELLS);
             //first fields for clustering key columns need to be added.
             addClusteringKeyFields(primaryKey, fields, timestamps, column, builders.left);
+            addClusteringPrefixFields(rowKey, fields, column);
         }
-        ColumnDefinition columnDefinition = table.metadata.getColumnDefinitionFromColumnName(columnNameBuf);
+        ColumnDefinition columnDefinition = metadata.getColumnDefinitionFromColumnName(columnNameBuf);
         if (options.shouldIndex(actualColName)) {
             long existingTS = timestamps.get(primaryKey);
             timestamps.put(primaryKey, Math.max(existingTS, column.maxTimestamp()));
-            addFields(column, actualColName, fields, columnDefinition);
+            expiries.put(primaryKey, expiry(expiries.get(primaryKey), column));
+            addFields(column, actualColName, fields, primaryKeysVsNested.get(primaryKey), columnDefinition);
         }
     }
 
 
+    /**
+     * Indexes the partial clustering prefixes of a CQL row so that range tombstones over them can be applied.
+     */
+    private void addClusteringPrefixFields(ByteBuffer rowKey, List<Field> fields, Column column) {
+        CompositeType baseComparator = (CompositeType) metadata.comparator;
+        ByteBuffer[] components = baseComparator.split(column.name());
+        String rkName = metadata.getKeyValidator().getString(rowKey);
+        int prefixSize = Math.min(clusteringPrefixSize(baseComparator), components.length);
+        for (int depth = 1; depth < prefixSize; depth++) {
+            fields.add(Fields.clusteringPrefixField(depth, clusteringPrefix(rkName, baseComparator, components, depth)));
+        }
+    }
+
     private void addClusteringKeyFields(ByteBuffer primaryKey, List<Field> fields, Map<ByteBuffer, Long> timestamps, Column column, CompositeType.Builder builder) {
         for (Map.Entry<Integer, Pair<String, ByteBuffer>> entry : options.clusteringKeysIndexed.entrySet()) {
             ByteBuffer value = builder.get(entry.getKey());
             ByteBuffer keyColumn = entry.getValue().right;
-            ColumnDefinition columnDefinition = table.metadata.getColumnDefinition(keyColumn);
+            ColumnDefinition columnDefinition = metadata.getColumnDefinition(keyColumn);
             String keyColumnName = entry.getValue().left;
             FieldType fieldType = options.fieldTypes.get(keyColumnName);
             long existingTS = timestamps.get(primaryKey);
@@ -111,10 +187,10 @@ public class WideRowIndexSupport extends RowIndexSupport {
         }
     }
 
-    public Pair<Pair<CompositeType.Builder, StringBuilder>, String> primaryKeyAndActualColumnName(boolean withPkBuilder, ColumnFamilyStore baseCfs, ByteBuffer rowKey, Column column) {
-        AbstractType<?> rowKeyComparator = baseCfs.metadata.getKeyValidator();
-        CompositeType baseComparator = (CompositeType) baseCfs.getComparator();
-        CFDefinition cfDef = baseCfs.metadata.getCfDef();
+    public Pair<Pair<CompositeType.Builder, StringBuilder>, String> primaryKeyAndActualColumnName(boolean withPkBuilder, CFMetaData metadata, ByteBuffer rowKey, Column column) {
+        AbstractType<?> rowKeyComparator = metadata.getKeyValidator();
+        CompositeType baseComparator = (CompositeType) metadata.comparator;
+        CFDefinition cfDef = metadata.getCfDef();
         int prefixSize = baseComparator.types.size() - (cfDef.hasCollections ? 2 : 1);
         List<AbstractType<?>> types = baseComparator.types;
         int idx = types.get(types.size() - 1) instanceof ColumnToCollectionType ? types.size() - 2 : types.size() - 1;
@@ -144,8 +220,13 @@ public class WideRowIndexSupport extends RowIndexSupport {
 
 
     public String getActualColumnName(ByteBuffer name) {
-        ByteBuffer colName = ((CompositeType) table.getComparator()).extractLastComponent(name);
+        ByteBuffer colName = ((CompositeType) metadata.comparator).extractLastComponent(name);
         return Utils.getColumnNameStr(colName);
     }
 
+    @Override
+    public ByteBuffer partitionKey(ByteBuffer primaryKey) {
+        return ((CompositeType) metadata.comparator).split(primaryKey)[0];
+    }
+
 }
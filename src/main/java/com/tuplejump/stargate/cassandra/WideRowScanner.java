@@ -26,12 +26,12 @@ import java.util.List;
  */
 public class WideRowScanner extends RowScanner {
 
-    public WideRowScanner(SearchSupport searchSupport, ColumnFamilyStore table, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering) throws Exception {
-        super(searchSupport, table, searcher, filter, topDocs, needsFiltering);
+    public WideRowScanner(SearchSupport searchSupport, ColumnFamilyStore table, IndexSearcher searcher, ExtendedFilter filter, TopDocs topDocs, boolean needsFiltering, boolean partial) throws Exception {
+        super(searchSupport, table, searcher, filter, topDocs, needsFiltering, partial);
     }
 
     @Override
-    protected void addMetaColumn(Column firstColumn, String colName, Float score, ColumnFamily cleanColumnFamily) {
+    protected void addMetaColumn(Column firstColumn, String colName, String metaJson, ColumnFamily cleanColumnFamily) {
         CompositeType baseComparator = (CompositeType) table.getComparator();
         ByteBuffer[] components = baseComparator.split(firstColumn.name());
         int prefixSize = baseComparator.types.size() - (table.metadata.getCfDef().hasCollections ? 2 : 1);
@@ -40,7 +40,7 @@ public class WideRowScanner extends RowScanner {
             builder.add(components[i]);
         builder.add(UTF8Type.instance.decompose(colName));
         ByteBuffer finalColumnName = builder.build();
-        Column scoreColumn = new Column(finalColumnName, UTF8Type.instance.decompose("{\"score\":" + score.toString() + "}"));
+        Column scoreColumn = new Column(finalColumnName, UTF8Type.instance.decompose(metaJson));
         cleanColumnFamily.addColumn(scoreColumn);
     }
 
@@ -0,0 +1,66 @@
+package com.tuplejump.stargate.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * User: satya
+ * <p/>
+ * The "autocomplete" block of a text or string field. The field is also indexed into a hidden field with the edge
+ * n-grams of each of its terms, so that a prefix of a term which is between minGram and maxGram long is a single term
+ * of that field, instead of a prefix to be expanded over the terms of the field.
+ */
+public class Autocomplete {
+
+    public static final int DEFAULT_MIN_GRAM = 1;
+    public static final int DEFAULT_MAX_GRAM = 15;
+
+    @JsonProperty
+    Integer minGram;
+
+    @JsonProperty
+    Integer maxGram;
+
+    public int getMinGram() {
+        return minGram != null ? minGram : DEFAULT_MIN_GRAM;
+    }
+
+    public int getMaxGram() {
+        return maxGram != null ? maxGram : DEFAULT_MAX_GRAM;
+    }
+
+    /**
+     * @return true if the prefix is indexed as an edge n-gram.
+     */
+    public boolean covers(String prefix) {
+        int length = prefix.codePointCount(0, prefix.length());
+        return length >= getMinGram() && length <= getMaxGram();
+    }
+
+    /**
+     * @param analyzer the analyzer of the field.
+     * @return the analyzer of the hidden field, which makes the edge n-grams of the terms of the field.
+     */
+    public Analyzer analyzer(final Analyzer analyzer) {
+        if (getMinGram() < 1) {
+            throw new IllegalArgumentException("autocomplete minGram must be at least 1");
+        }
+        if (getMaxGram() < getMinGram()) {
+            throw new IllegalArgumentException("autocomplete maxGram must not be less than minGram");
+        }
+        return new AnalyzerWrapper(analyzer.getReuseStrategy()) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                EdgeNGramTokenFilter grams = new EdgeNGramTokenFilter(Properties.luceneVersion, components.getTokenStream(), getMinGram(), getMaxGram());
+                return new TokenStreamComponents(components.getTokenizer(), grams);
+            }
+        };
+    }
+}
@@ -0,0 +1,176 @@
+package com.tuplejump.stargate.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+
+/**
+ * User: satya
+ * <p/>
+ * An indexer over a plain IndexWriter. Used to build a part of an index in a temporary directory,
+ * which is later added to the live index. It is not committed or refreshed in the background, and each search opens
+ * a new reader on the writer.
+ */
+public class BulkIndexer implements Indexer {
+
+    protected final IndexWriter indexWriter;
+
+    protected final Directory directory;
+
+    protected final Analyzer analyzer;
+
+    public BulkIndexer(IndexWriter indexWriter, Analyzer analyzer) {
+        this.indexWriter = indexWriter;
+        this.directory = indexWriter.getDirectory();
+        this.analyzer = analyzer;
+    }
+
+    public Directory getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void insert(Iterable<Field> doc) {
+        try {
+            indexWriter.addDocument(doc);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void insertBlock(Iterable<? extends Iterable<Field>> docs) {
+        try {
+            indexWriter.addDocuments(docs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void upsert(Iterable<Field> doc, Term idTerm) {
+        try {
+            indexWriter.updateDocument(idTerm, doc);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void delete(Term... terms) {
+        try {
+            BooleanQuery q = new BooleanQuery();
+            for (Term t : terms) {
+                q.add(new TermQuery(t), BooleanClause.Occur.MUST);
+            }
+            indexWriter.deleteDocuments(q);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void delete(Query query) {
+        try {
+            indexWriter.deleteDocuments(query);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void commit() {
+        try {
+            indexWriter.commit();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the writer and the directory. The analyzer is shared with the live index and is left open.
+     */
+    @Override
+    public void close() {
+        try {
+            indexWriter.close();
+            directory.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean truncate(long l) {
+        try {
+            indexWriter.deleteAll();
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the writer and deletes the files of the index and closes the directory.
+     */
+    @Override
+    public boolean removeIndex() {
+        try {
+            indexWriter.close();
+            for (String file : directory.listAll()) {
+                directory.deleteFile(file);
+            }
+            directory.close();
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void addIndexes(Directory... dirs) {
+        try {
+            indexWriter.addIndexes(dirs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public long getLiveSize() {
+        return indexWriter.ramSizeInBytes();
+    }
+
+    @Override
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    @Override
+    public Sort getIndexSort() {
+        return null;
+    }
+
+    /**
+     * Searches the documents written so far, including those which are not committed.
+     */
+    @Override
+    public <T> T search(SearcherCallback<T> searcherCallback) {
+        try (DirectoryReader reader = DirectoryReader.open(indexWriter, true)) {
+            return searcherCallback.doWithSearcher(new IndexSearcher(reader));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
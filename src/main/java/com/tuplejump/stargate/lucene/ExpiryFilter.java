@@ -0,0 +1,46 @@
+package com.tuplejump.stargate.lucene;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.FieldCacheDocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+
+import static com.tuplejump.stargate.Constants.CF_EXPIRY_DOC_VAL;
+
+/**
+ * User: satya
+ * <p/>
+ * Accepts only the documents which have not expired by TTL at the given time, by reading the expiry doc values.
+ * Documents without an expiry are always accepted. Expired documents are deleted in the background, this keeps them
+ * out of search results until then.
+ */
+public class ExpiryFilter extends Filter {
+
+    private final long nowInSeconds;
+
+    public ExpiryFilter(long nowInSeconds) {
+        this.nowInSeconds = nowInSeconds;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        final NumericDocValues expiries = context.reader().getNumericDocValues(CF_EXPIRY_DOC_VAL);
+        return new FieldCacheDocIdSet(context.reader().maxDoc(), acceptDocs) {
+            @Override
+            protected boolean matchDoc(int doc) {
+                if (expiries == null) return true;
+                long expiry = expiries.get(doc);
+                return expiry <= 0 || expiry > nowInSeconds;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ExpiryFilter(" + nowInSeconds + ")";
+    }
+}
@@ -0,0 +1,137 @@
+package com.tuplejump.stargate.lucene;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * User: satya
+ * <p/>
+ * Runs the background work of all indexes on this node from one small pool of threads.
+ * Each index is reopened for search every refresh interval if it has new writes, and committed every commit interval
+ * if configured. Documents expired by TTL are deleted every sg.expiry.sweep.ms milliseconds, and new snapshots of the
+ * table are looked for every sg.snapshot.check.ms milliseconds to link the index into them. Tasks use a fixed delay
+ * so that one slow index does not starve the others.
+ * A single shutdown hook commits and closes all open indexes in parallel.
+ * The pool size is set with the system property sg.scheduler.threads.
+ */
+public class IndexScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(IndexScheduler.class);
+
+    public static final int THREADS = Integer.getInteger("sg.scheduler.threads", 2);
+
+    public static final long EXPIRY_SWEEP_INTERVAL_MS = Long.getLong("sg.expiry.sweep.ms", 60000);
+
+    public static final long SNAPSHOT_CHECK_INTERVAL_MS = Long.getLong("sg.snapshot.check.ms", 5000);
+
+    //commits are kept long enough for a snapshot taken after them to be found.
+    public static final long SNAPSHOT_RETENTION_MS = SNAPSHOT_CHECK_INTERVAL_MS * 4;
+
+    public static final long SHUTDOWN_TIMEOUT_SECONDS = 120;
+
+    public static final IndexScheduler instance = new IndexScheduler(THREADS);
+
+    private final ScheduledExecutorService executor;
+
+    private final Map<NearRealTimeIndexer, List<ScheduledFuture<?>>> indexTasks = new ConcurrentHashMap<>();
+
+    IndexScheduler(int threads) {
+        executor = Executors.newScheduledThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SGIndex - Scheduler - %d").build());
+        Runtime.getRuntime().addShutdownHook(new Thread("SGIndex - Shutdown") {
+            @Override
+            public void run() {
+                closeAll();
+            }
+        });
+    }
+
+    /**
+     * Runs the task every delay milliseconds. Failures are logged and do not cancel later runs.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(final String name, final Runnable task, long delayMs) {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.error("SG scheduled task failed - " + name, t);
+                }
+            }
+        }, delayMs, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(final NearRealTimeIndexer indexer, long refreshIntervalMs, long commitIntervalMs) {
+        List<ScheduledFuture<?>> tasks = new ArrayList<>(4);
+        tasks.add(scheduleWithFixedDelay(indexer.indexName + " refresh", new Runnable() {
+            @Override
+            public void run() {
+                indexer.maybeRefresh();
+            }
+        }, refreshIntervalMs));
+        tasks.add(scheduleWithFixedDelay(indexer.indexName + " expiry sweep", new Runnable() {
+            @Override
+            public void run() {
+                indexer.deleteExpired();
+            }
+        }, EXPIRY_SWEEP_INTERVAL_MS));
+        tasks.add(scheduleWithFixedDelay(indexer.indexName + " snapshot link", new Runnable() {
+            @Override
+            public void run() {
+                indexer.linkSnapshots();
+            }
+        }, SNAPSHOT_CHECK_INTERVAL_MS));
+        if (commitIntervalMs > 0) {
+            tasks.add(scheduleWithFixedDelay(indexer.indexName + " commit", new Runnable() {
+                @Override
+                public void run() {
+                    indexer.maybeCommit();
+                }
+            }, commitIntervalMs));
+        }
+        indexTasks.put(indexer, tasks);
+    }
+
+    public void unregister(NearRealTimeIndexer indexer) {
+        List<ScheduledFuture<?>> tasks = indexTasks.remove(indexer);
+        if (tasks != null) {
+            for (ScheduledFuture<?> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    void closeAll() {
+        List<NearRealTimeIndexer> indexers = new ArrayList<>(indexTasks.keySet());
+        if (indexers.isEmpty()) return;
+        logger.warn("SG Shutdown - Committing and closing [" + indexers.size() + "] indexes");
+        int threads = Math.max(1, Math.min(indexers.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService closer = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SGIndex - Closer - %d").build());
+        List<Callable<Void>> closes = new ArrayList<>(indexers.size());
+        for (final NearRealTimeIndexer indexer : indexers) {
+            closes.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        indexer.close();
+                    } catch (Exception e) {
+                        logger.error("SG Shutdown - Unable to close index " + indexer.indexName, e);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            closer.invokeAll(closes, SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.tuplejump.stargate.lucene;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.DocValuesFormat;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene46.Lucene46Codec;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.*;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * User: satya
+ * <p/>
+ * The IndexWriter profile of one index. This is the "indexWriter" block at the root of sg_options.
+ * Every property is optional and falls back to the lucene default, except the RAM buffer and the NRT cache sizes
+ * which keep the stargate defaults.
+ */
+public class IndexWriterSettings {
+
+    public enum DirectoryType {
+        fs,
+        mmap,
+        nio
+    }
+
+    public static final double DEFAULT_RAM_BUFFER_SIZE_MB = 256;
+    public static final double DEFAULT_NRT_MAX_MERGE_SIZE_MB = 100;
+    public static final double DEFAULT_NRT_MAX_CACHED_MB = 100;
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 1000;
+
+    @JsonProperty
+    Double ramBufferSizeMB;
+
+    @JsonProperty
+    Integer maxBufferedDocs;
+
+    @JsonProperty
+    Double segmentsPerTier;
+
+    @JsonProperty
+    Integer maxMergeAtOnce;
+
+    @JsonProperty
+    Double floorSegmentMB;
+
+    @JsonProperty
+    Double maxMergedSegmentMB;
+
+    @JsonProperty
+    Integer mergeThreads;
+
+    @JsonProperty
+    Integer maxMergeCount;
+
+    @JsonProperty
+    Double mergeMBPerSec;
+
+    @JsonProperty
+    DirectoryType directory = DirectoryType.fs;
+
+    @JsonProperty
+    Boolean nrtCache;
+
+    @JsonProperty
+    Double nrtMaxMergeSizeMB;
+
+    @JsonProperty
+    Double nrtMaxCachedMB;
+
+    @JsonProperty
+    Long refreshIntervalMs;
+
+    @JsonProperty
+    Long commitIntervalMs;
+
+    @JsonProperty
+    String postingsFormat;
+
+    @JsonProperty
+    String docValuesFormat;
+
+    public double getRamBufferSizeMB() {
+        return ramBufferSizeMB != null ? ramBufferSizeMB : DEFAULT_RAM_BUFFER_SIZE_MB;
+    }
+
+    public boolean isNrtCache() {
+        return nrtCache != null ? nrtCache : true;
+    }
+
+    public double getNrtMaxMergeSizeMB() {
+        return nrtMaxMergeSizeMB != null ? nrtMaxMergeSizeMB : DEFAULT_NRT_MAX_MERGE_SIZE_MB;
+    }
+
+    public double getNrtMaxCachedMB() {
+        return nrtMaxCachedMB != null ? nrtMaxCachedMB : DEFAULT_NRT_MAX_CACHED_MB;
+    }
+
+    public long getRefreshIntervalMs() {
+        return refreshIntervalMs != null ? refreshIntervalMs : DEFAULT_REFRESH_INTERVAL_MS;
+    }
+
+    /**
+     * @return the interval between background commits or 0 if the index is committed only when cassandra flushes.
+     */
+    public long getCommitIntervalMs() {
+        return commitIntervalMs != null ? commitIntervalMs : 0;
+    }
+
+    /**
+     * Checks the settings without opening anything.
+     *
+     * @throws IllegalArgumentException describing the first invalid setting.
+     */
+    public void validate() {
+        double ramBuffer = getRamBufferSizeMB();
+        check(ramBuffer > 0 && ramBuffer < 2048, "ramBufferSizeMB must be greater than 0 and less than 2048");
+        check(maxBufferedDocs == null || maxBufferedDocs >= 2, "maxBufferedDocs must be at least 2");
+        check(segmentsPerTier == null || segmentsPerTier >= 2, "segmentsPerTier must be at least 2");
+        check(maxMergeAtOnce == null || maxMergeAtOnce >= 2, "maxMergeAtOnce must be at least 2");
+        check(floorSegmentMB == null || floorSegmentMB > 0, "floorSegmentMB must be greater than 0");
+        check(maxMergedSegmentMB == null || maxMergedSegmentMB > 0, "maxMergedSegmentMB must be greater than 0");
+        check(mergeThreads == null || mergeThreads >= 1, "mergeThreads must be at least 1");
+        check(maxMergeCount == null || maxMergeCount >= 1, "maxMergeCount must be at least 1");
+        check(mergeThreads == null || maxMergeCount == null || maxMergeCount >= mergeThreads, "maxMergeCount must not be less than mergeThreads");
+        check(mergeMBPerSec == null || mergeMBPerSec > 0, "mergeMBPerSec must be greater than 0");
+        check(getNrtMaxMergeSizeMB() > 0, "nrtMaxMergeSizeMB must be greater than 0");
+        check(getNrtMaxCachedMB() > 0, "nrtMaxCachedMB must be greater than 0");
+        check(getRefreshIntervalMs() > 0, "refreshIntervalMs must be greater than 0");
+        check(getCommitIntervalMs() >= 0, "commitIntervalMs must not be negative");
+        if (postingsFormat != null) PostingsFormat.forName(postingsFormat);
+        if (docValuesFormat != null) DocValuesFormat.forName(docValuesFormat);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new IllegalArgumentException("Invalid indexWriter setting - " + message);
+    }
+
+    /**
+     * Applies the RAM buffer, merge policy, merge scheduler and codec settings to the config.
+     */
+    public void apply(IndexWriterConfig config) {
+        config.setRAMBufferSizeMB(getRamBufferSizeMB());
+        if (maxBufferedDocs != null) config.setMaxBufferedDocs(maxBufferedDocs);
+
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        if (segmentsPerTier != null) mergePolicy.setSegmentsPerTier(segmentsPerTier);
+        if (maxMergeAtOnce != null) mergePolicy.setMaxMergeAtOnce(maxMergeAtOnce);
+        if (floorSegmentMB != null) mergePolicy.setFloorSegmentMB(floorSegmentMB);
+        if (maxMergedSegmentMB != null) mergePolicy.setMaxMergedSegmentMB(maxMergedSegmentMB);
+        config.setMergePolicy(mergePolicy);
+
+        if (mergeThreads != null || maxMergeCount != null) {
+            ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+            int threads = mergeThreads != null ? mergeThreads : mergeScheduler.getMaxThreadCount();
+            if (maxMergeCount != null) threads = Math.min(threads, maxMergeCount);
+            int merges = maxMergeCount != null ? maxMergeCount : Math.max(mergeScheduler.getMaxMergeCount(), threads + 2);
+            mergeScheduler.setMaxMergesAndThreads(merges, threads);
+            config.setMergeScheduler(mergeScheduler);
+        }
+
+        if (postingsFormat != null || docValuesFormat != null) {
+            config.setCodec(codec());
+        }
+    }
+
+    private Codec codec() {
+        final PostingsFormat postings = postingsFormat != null ? PostingsFormat.forName(postingsFormat) : null;
+        final DocValuesFormat docValues = docValuesFormat != null ? DocValuesFormat.forName(docValuesFormat) : null;
+        return new Lucene46Codec() {
+            @Override
+            public PostingsFormat getPostingsFormatForField(String field) {
+                return postings != null ? postings : super.getPostingsFormatForField(field);
+            }
+
+            @Override
+            public DocValuesFormat getDocValuesFormatForField(String field) {
+                return docValues != null ? docValues : super.getDocValuesFormatForField(field);
+            }
+        };
+    }
+
+    /**
+     * Opens the directory for the index files, throttling merge writes and caching small NRT segments if configured.
+     */
+    public Directory directory(File file) throws IOException {
+        Directory dir;
+        switch (directory) {
+            case mmap:
+                dir = new MMapDirectory(file);
+                break;
+            case nio:
+                dir = new NIOFSDirectory(file);
+                break;
+            default:
+                dir = FSDirectory.open(file);
+        }
+        if (mergeMBPerSec != null) {
+            RateLimitedDirectoryWrapper rateLimited = new RateLimitedDirectoryWrapper(dir);
+            rateLimited.setMaxWriteMBPerSec(mergeMBPerSec, IOContext.Context.MERGE);
+            dir = rateLimited;
+        }
+        if (isNrtCache()) {
+            dir = new NRTCachingDirectory(dir, getNrtMaxMergeSizeMB(), getNrtMaxCachedMB());
+        }
+        return dir;
+    }
+
+}
@@ -3,6 +3,9 @@ package com.tuplejump.stargate.lucene;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
 
 /**
  * User: satya
@@ -22,10 +25,27 @@ public interface Indexer {
 
     void insert(Iterable<Field> doc);
 
+    /**
+     * Adds documents as one block, which is visible to searches and merged as a whole.
+     */
+    void insertBlock(Iterable<? extends Iterable<Field>> docs);
+
     public void delete(Term... idTerm);
 
+    public void delete(Query query);
+
     public Analyzer getAnalyzer();
 
+    /**
+     * @return the sort order of merged segments or null if segments are not sorted.
+     */
+    public Sort getIndexSort();
+
+    /**
+     * Adds the segments of other indexes, which must not be open for writing, to this index.
+     */
+    public void addIndexes(Directory... dirs);
+
     public <T> T search(SearcherCallback<T> searcherCallback);
 
     void upsert(Iterable<Field> doc, Term idTerm);
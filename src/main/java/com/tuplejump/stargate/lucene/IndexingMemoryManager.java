@@ -0,0 +1,98 @@
+package com.tuplejump.stargate.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User: satya
+ * <p/>
+ * Keeps the RAM used by the index writers of all indexes on this node within one budget.
+ * The budget is set in MB with the system property sg.index.memory.mb and defaults to a tenth of the heap.
+ * When the buffered documents of all writers go over budget, the writers holding the most RAM are flushed
+ * into segments, largest first, until the total is back under budget. Only the node wide instance checks
+ * on a schedule.
+ */
+public class IndexingMemoryManager {
+    private static final Logger logger = LoggerFactory.getLogger(IndexingMemoryManager.class);
+
+    public static final long BUDGET_BYTES = Long.getLong("sg.index.memory.mb", Runtime.getRuntime().maxMemory() / (10 * 1024 * 1024)) * 1024 * 1024;
+
+    public static final long CHECK_INTERVAL_MS = 1000;
+
+    public static final IndexingMemoryManager instance = new IndexingMemoryManager(BUDGET_BYTES).scheduleChecks();
+
+    private final long budgetBytes;
+
+    private final Set<NearRealTimeIndexer> indexers = Collections.newSetFromMap(new ConcurrentHashMap<NearRealTimeIndexer, Boolean>());
+
+    IndexingMemoryManager(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    private IndexingMemoryManager scheduleChecks() {
+        IndexScheduler.instance.scheduleWithFixedDelay("Indexing memory check", new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, CHECK_INTERVAL_MS);
+        logger.warn("SG Indexing memory budget is [" + (budgetBytes / (1024 * 1024)) + "] MB");
+        return this;
+    }
+
+    public void register(NearRealTimeIndexer indexer) {
+        indexers.add(indexer);
+    }
+
+    public void unregister(NearRealTimeIndexer indexer) {
+        indexers.remove(indexer);
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * @return the RAM buffered by all the index writers on this node.
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (NearRealTimeIndexer indexer : indexers) {
+            used += indexer.getRamBufferBytes();
+        }
+        return used;
+    }
+
+    void check() {
+        final List<NearRealTimeIndexer> byUsage = new ArrayList<>(indexers);
+        final long[] usage = new long[byUsage.size()];
+        long used = 0;
+        for (int i = 0; i < usage.length; i++) {
+            usage[i] = byUsage.get(i).getRamBufferBytes();
+            used += usage[i];
+        }
+        if (used <= budgetBytes) return;
+        List<Integer> order = new ArrayList<>(usage.length);
+        for (int i = 0; i < usage.length; i++) order.add(i);
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(usage[o2], usage[o1]);
+            }
+        });
+        for (Integer i : order) {
+            if (used <= budgetBytes || usage[i] == 0) break;
+            NearRealTimeIndexer indexer = byUsage.get(i);
+            logger.warn("SG Indexing memory [" + used + "] bytes over budget [" + budgetBytes + "] - flushing " + indexer.indexName + " with [" + usage[i] + "] bytes");
+            indexer.flushRamBuffer();
+            used -= usage[i];
+        }
+    }
+}
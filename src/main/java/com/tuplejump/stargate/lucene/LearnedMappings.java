@@ -0,0 +1,94 @@
+package com.tuplejump.stargate.lucene;
+
+import com.tuplejump.stargate.Utils;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * User: satya
+ * <p/>
+ * The types learned for unmapped json paths of an index, by json column and field name. They are kept in a file
+ * next to the index so that an index which is opened again maps the paths as it did before.
+ */
+public class LearnedMappings {
+
+    private static final Logger logger = LoggerFactory.getLogger(LearnedMappings.class);
+
+    public static final String MAPPING_SUFFIX = ".mapping.json";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File file;
+
+    private final Map<String, Map<String, Properties.Type>> columns;
+
+    /**
+     * Reads the learned types from the file if it exists.
+     */
+    public LearnedMappings(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try {
+                columns = Options.jsonMapper.readValue(file, new TypeReference<TreeMap<String, TreeMap<String, Properties.Type>>>() {
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            columns = new TreeMap<>();
+        }
+    }
+
+    public static File file(String keyspace, String table, String indexName) throws IOException {
+        File dir = Utils.getDirectory(keyspace, table, indexName);
+        return new File(dir.getParentFile(), indexName + MAPPING_SUFFIX);
+    }
+
+    /**
+     * @return the learned types by json column and field name.
+     */
+    public synchronized Map<String, Map<String, Properties.Type>> getColumns() {
+        Map<String, Map<String, Properties.Type>> copy = new TreeMap<>();
+        for (Map.Entry<String, Map<String, Properties.Type>> column : columns.entrySet()) {
+            copy.put(column.getKey(), new TreeMap<>(column.getValue()));
+        }
+        return copy;
+    }
+
+    public synchronized void put(String column, String fieldName, Properties.Type type) {
+        Map<String, Properties.Type> types = columns.get(column);
+        if (types == null) {
+            types = new TreeMap<>();
+            columns.put(column, types);
+        }
+        types.put(fieldName, type);
+    }
+
+    /**
+     * Writes the learned types to a temporary file which then replaces the file.
+     */
+    public synchronized void save() {
+        File tmp = new File(file.getParentFile(), file.getName() + TMP_SUFFIX);
+        try {
+            file.getParentFile().mkdirs();
+            Options.jsonMapper.writeValue(tmp, columns);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized void delete() {
+        if (file.exists() && !file.delete()) {
+            logger.warn("SG Index - Could not delete learned mappings [" + file.getAbsolutePath() + "]");
+        }
+    }
+}
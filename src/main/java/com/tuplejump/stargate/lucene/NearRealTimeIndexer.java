@@ -1,26 +1,39 @@
 package com.tuplejump.stargate.lucene;
 
+import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.Utils;
+import com.tuplejump.stargate.cassandra.IndexSnapshots;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SimpleMergedSegmentWarmer;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.index.sorter.SortingMergePolicy;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.InfoStream;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * User: satya
- * An indexer which uses an underlying lucene ControlledRealTimeReopenThread Manager
+ * A near real time indexer. Searchers are reopened by the node wide IndexScheduler and on demand
+ * when a search must see writes which are not yet searchable.
  */
 public class NearRealTimeIndexer implements Indexer {
     private static final Logger logger = LoggerFactory.getLogger(NearRealTimeIndexer.class);
@@ -31,7 +44,7 @@ public class NearRealTimeIndexer implements Indexer {
 
     protected ReferenceManager<IndexSearcher> indexSearcherReferenceManager;
 
-    protected NRTCachingDirectory directory;
+    protected Directory directory;
 
     protected File file;
 
@@ -45,11 +58,24 @@ public class NearRealTimeIndexer implements Indexer {
 
     protected volatile long latest;
 
-    protected ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    protected volatile long searchingGen;
 
-    public NearRealTimeIndexer(Analyzer analyzer, String keyspaceName, String cfName, String indexName) {
+    protected Options options;
+
+    protected Sort indexSort;
+
+    protected SnapshotDeletionPolicy snapshotPolicy;
+
+    //recent commits with their time and the latest sstable they cover, kept from deletion until snapshots of the table are linked.
+    private final Deque<HeldCommit> heldCommits = new ArrayDeque<>();
+
+    private final Set<String> linkedSnapshots = new HashSet<>();
+
+    public NearRealTimeIndexer(Options options, String keyspaceName, String cfName, String indexName) {
         try {
-            init(analyzer, keyspaceName, cfName, indexName);
+            this.options = options;
+            this.indexSort = options.indexSort;
+            init(options.analyzer, keyspaceName, cfName, indexName);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -65,41 +91,48 @@ public class NearRealTimeIndexer implements Indexer {
         logger.debug(indexName + " Lucene version -" + Properties.luceneVersion);
         IndexWriter delegate = getIndexWriter(Properties.luceneVersion);
         indexWriter = new TrackingIndexWriter(delegate);
-        indexSearcherReferenceManager = new SearcherManager(delegate, true, null);
-        reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, indexSearcherReferenceManager, 1, 0.01);
-        startReopenThread();
+        //the factory also warms the first searcher, so a restarted node does not serve cold segments.
+        indexSearcherReferenceManager = new SearcherManager(delegate, true, new WarmingSearcherFactory(options, indexName));
+        indexSearcherReferenceManager.addListener(new ReferenceManager.RefreshListener() {
+            private long refreshStartGen;
+
+            @Override
+            public void beforeRefresh() {
+                refreshStartGen = indexWriter.getAndIncrementGeneration();
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                searchingGen = refreshStartGen;
+            }
+        });
+        IndexWriterSettings settings = options.primary.getIndexWriterSettings();
+        IndexScheduler.instance.register(this, settings.getRefreshIntervalMs(), settings.getCommitIntervalMs());
+        IndexingMemoryManager.instance.register(this);
     }
 
 
     private IndexWriter getIndexWriter(Version luceneV) throws IOException {
         file = Utils.getDirectory(keyspaceName, cfName, indexName);
+        IndexWriterSettings settings = options.primary.getIndexWriterSettings();
         IndexWriterConfig config = new IndexWriterConfig(luceneV, analyzer);
-        config.setRAMBufferSizeMB(256);
+        settings.apply(config);
         config.setOpenMode(OPEN_MODE);
-        directory = new NRTCachingDirectory(FSDirectory.open(file), 100, 100);
+        if (indexSort != null) {
+            //merged segments are kept in index sort order so that searches with the same sort can terminate early.
+            config.setMergePolicy(new SortingMergePolicy(config.getMergePolicy(), indexSort));
+            logger.warn(indexName + " SG Index - Segments sorted by [" + indexSort + "]");
+        }
+        if (options.primary.isWarmMergedSegments()) {
+            config.setMergedSegmentWarmer(new SimpleMergedSegmentWarmer(InfoStream.getDefault()));
+        }
+        snapshotPolicy = new SnapshotDeletionPolicy(config.getIndexDeletionPolicy());
+        config.setIndexDeletionPolicy(snapshotPolicy);
+        directory = settings.directory(file);
         logger.warn(indexName + " SG Index - Opened dir[" + file.getAbsolutePath() + "] - Openmode[" + OPEN_MODE + "]");
         return new IndexWriter(directory, config);
     }
 
-    private void startReopenThread() {
-        reopenThread.setName(String.format("SGIndex - %s - NRT Reopen Thread", indexName));
-        reopenThread.setPriority(Math.min(Thread.currentThread().getPriority() + 2, Thread.MAX_PRIORITY));
-        reopenThread.setDaemon(true);
-        reopenThread.start();
-        logger.warn(indexName + " NRT reopen thread  started - " + reopenThread.getName());
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                try {
-                    logger.warn(indexName + " NRT Shutdown hook called- Commiting and closing index");
-                    close();
-                } catch (Exception e) {
-                    //do nothing
-                }
-            }
-        });
-    }
-
     @Override
     public void upsert(Iterable<Field> doc, Term idTerm) {
         if (logger.isDebugEnabled())
@@ -107,7 +140,6 @@ public class NearRealTimeIndexer implements Indexer {
 
         try {
             latest = indexWriter.updateDocument(idTerm, doc);
-            indexSearcherReferenceManager.maybeRefresh();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -120,7 +152,18 @@ public class NearRealTimeIndexer implements Indexer {
 
         try {
             latest = indexWriter.addDocument(doc);
-            indexSearcherReferenceManager.maybeRefresh();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void insertBlock(Iterable<? extends Iterable<Field>> docs) {
+        if (logger.isDebugEnabled())
+            logger.debug(indexName + " Indexing block" + docs);
+
+        try {
+            latest = indexWriter.addDocuments(docs);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -136,13 +179,61 @@ public class NearRealTimeIndexer implements Indexer {
                 q.add(new TermQuery(t), BooleanClause.Occur.MUST);
             }
             latest = indexWriter.deleteDocuments(q);
-            indexSearcherReferenceManager.maybeRefresh();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
 
+    @Override
+    public void delete(Query query) {
+        try {
+            if (logger.isDebugEnabled())
+                logger.debug(indexName + " Delete query - " + query);
+            latest = indexWriter.deleteDocuments(query);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Called by the scheduler. Deletes the documents whose indexed cells have all expired by TTL. A delete makes the
+     * next refresh and commit do work, so nothing is deleted unless the current searcher finds expired documents.
+     * Documents which are not searchable yet are found by a later sweep.
+     *
+     * @return true if expired documents were deleted.
+     */
+    boolean deleteExpired() {
+        Query expired = Fields.expiredQuery(System.currentTimeMillis() / 1000);
+        try {
+            IndexSearcher searcher = indexSearcherReferenceManager.acquire();
+            try {
+                if (searcher.search(expired, 1).totalHits == 0) return false;
+            } finally {
+                indexSearcherReferenceManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        delete(expired);
+        return true;
+    }
+
+    @Override
+    public void addIndexes(Directory... dirs) {
+        try {
+            logger.warn(indexName + " SG Index - Adding [" + dirs.length + "] indexes");
+            latest = indexWriter.addIndexes(dirs);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Sort getIndexSort() {
+        return indexSort;
+    }
+
     @Override
     public Analyzer getAnalyzer() {
         return analyzer;
@@ -152,7 +243,10 @@ public class NearRealTimeIndexer implements Indexer {
     public <T> T search(SearcherCallback<T> searcherCallback) {
         IndexSearcher searcher = null;
         try {
-            reopenThread.waitForGeneration(latest);
+            if (latest > searchingGen) {
+                //writes before this search are not searchable yet.
+                indexSearcherReferenceManager.maybeRefreshBlocking();
+            }
             searcher = indexSearcherReferenceManager.acquire();
             return searcherCallback.doWithSearcher(searcher);
         } catch (Exception e) {
@@ -192,8 +286,19 @@ public class NearRealTimeIndexer implements Indexer {
         }
     }
 
+    /**
+     * The RAM held by this index - documents buffered in the writer and segments cached by the NRT directory.
+     */
     @Override
     public long getLiveSize() {
+        long liveSize = getRamBufferBytes();
+        if (directory instanceof NRTCachingDirectory) {
+            liveSize += ((NRTCachingDirectory) directory).sizeInBytes();
+        }
+        return liveSize;
+    }
+
+    long getRamBufferBytes() {
         if (indexWriter != null) {
             return indexWriter.getIndexWriter().ramSizeInBytes();
         } else {
@@ -201,6 +306,39 @@ public class NearRealTimeIndexer implements Indexer {
         }
     }
 
+    /**
+     * Writes the buffered documents to a new segment by reopening the searcher. This does not fsync like a commit.
+     */
+    void flushRamBuffer() {
+        try {
+            indexSearcherReferenceManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Called by the scheduler. Makes new writes searchable unless a search is already doing so.
+     */
+    void maybeRefresh() {
+        if (latest > searchingGen) {
+            try {
+                indexSearcherReferenceManager.maybeRefresh();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Called by the scheduler. Commits only if there are changes since the last commit.
+     */
+    void maybeCommit() {
+        if (indexWriter.getIndexWriter().hasUncommittedChanges()) {
+            commit();
+        }
+    }
+
     @Override
     public void close() {
         try {
@@ -214,20 +352,91 @@ public class NearRealTimeIndexer implements Indexer {
 
     private void closeIndex() throws IOException {
         logger.warn("SG NearRealTimeIndexer - Closing index -" + indexName);
-        reopenThread.interrupt();
-        reopenThread.close();
+        IndexScheduler.instance.unregister(this);
+        IndexingMemoryManager.instance.unregister(this);
         indexSearcherReferenceManager.close();
         indexWriter.getIndexWriter().close();
         analyzer.close();
     }
 
+    /**
+     * Commits and holds the commit under the same lock, so that the held commits are in commit order.
+     */
     @Override
-    public void commit() {
+    public synchronized void commit() {
         try {
             logger.warn("SG NearRealTimeIndexer - Committing index -" + indexName);
+            //cassandra flushes the index after the sstables of the table, so the commit covers the sstables listed before it.
+            int sstableGeneration = IndexSnapshots.latestGeneration(keyspaceName, cfName, null);
             indexWriter.getIndexWriter().commit();
+            holdCommit(sstableGeneration);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Keeps the last commit, which cassandra makes when it flushes the table before a snapshot, so that it can be
+     * linked into the snapshot. Commits older than the retention are released, except the latest.
+     */
+    private void holdCommit(int sstableGeneration) throws IOException {
+        heldCommits.addLast(new HeldCommit(System.currentTimeMillis(), sstableGeneration, snapshotPolicy.snapshot()));
+        long retainAfter = System.currentTimeMillis() - IndexScheduler.SNAPSHOT_RETENTION_MS;
+        while (heldCommits.size() > 1 && heldCommits.peekFirst().time < retainAfter) {
+            snapshotPolicy.release(heldCommits.removeFirst().commit);
+        }
+    }
+
+    /**
+     * Called by the scheduler. Links the commit made before each new snapshot of the table into the snapshot.
+     */
+    synchronized void linkSnapshots() {
+        for (Map.Entry<String, File> snapshot : IndexSnapshots.snapshots(keyspaceName, cfName).entrySet()) {
+            String tag = snapshot.getKey();
+            File target = IndexSnapshots.indexDir(snapshot.getValue(), indexName);
+            if (linkedSnapshots.contains(tag) || target.exists()) {
+                linkedSnapshots.add(tag);
+                continue;
+            }
+            linkedSnapshots.add(tag);
+            try {
+                IndexCommit commit = snapshotCommit(IndexSnapshots.latestGeneration(keyspaceName, cfName, tag));
+                if (commit == null) {
+                    logger.warn(indexName + " SG Index - No commit to link into snapshot [" + tag + "] taken before the index was opened");
+                    continue;
+                }
+                IndexSnapshots.link(file, commit.getFileNames(), target);
+                logger.warn(indexName + " SG Index - Linked commit [" + commit.getSegmentsFileName() + "] into snapshot [" + tag + "]");
+            } catch (IOException e) {
+                logger.error(indexName + " SG Index - Unable to link snapshot [" + tag + "]", e);
+            }
+        }
+    }
+
+    /**
+     * The snapshot flush commits the index after writing the latest sstable of the snapshot, so the commit of a snapshot
+     * is the first commit which covers that sstable. If none does, the sstable was written by a compaction after the
+     * last commit, which is then the commit of the snapshot flush.
+     *
+     * @param sstableGeneration the latest sstable generation in the snapshot.
+     * @return the held commit of the snapshot, or null if none is held.
+     */
+    private IndexCommit snapshotCommit(int sstableGeneration) {
+        for (HeldCommit held : heldCommits) {
+            if (held.sstableGeneration >= sstableGeneration) return held.commit;
+        }
+        return heldCommits.isEmpty() ? null : heldCommits.peekLast().commit;
+    }
+
+    private static class HeldCommit {
+        final long time;
+        final int sstableGeneration;
+        final IndexCommit commit;
+
+        HeldCommit(long time, int sstableGeneration, IndexCommit commit) {
+            this.time = time;
+            this.sstableGeneration = sstableGeneration;
+            this.commit = commit;
+        }
+    }
 }
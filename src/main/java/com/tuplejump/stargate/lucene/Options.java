@@ -3,10 +3,12 @@ package com.tuplejump.stargate.lucene;
 import com.google.common.base.Splitter;
 import com.tuplejump.stargate.Utils;
 import com.tuplejump.stargate.cassandra.CassandraUtils;
+import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.cql3.CFDefinition;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.BytesType;
 import org.apache.cassandra.db.marshal.ListType;
 import org.apache.cassandra.db.marshal.MapType;
 import org.apache.cassandra.db.marshal.SetType;
@@ -25,6 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * User: satya
@@ -74,7 +77,6 @@ public class Options {
     }
 
 
-    final Map<String, Properties> fields;
     public final Properties primary;
     public final Map<String, NumericConfig> numericFieldOptions;
     public final Map<String, FieldType> fieldTypes;
@@ -85,6 +87,12 @@ public class Options {
     public final Set<String> indexedColumnNames;
     public final Analyzer analyzer;
     public final String defaultField;
+    public final org.apache.lucene.search.Sort indexSort;
+    /**
+     * true if a json path is nested, so the index has blocks of documents of nested objects and rows.
+     */
+    public final boolean hasNested;
+    private LearnedMappings learnedMappings;
 
 
     public Properties getProperties(String fieldName) {
@@ -92,16 +100,17 @@ public class Options {
             Iterable<String> parts = Splitter.on('.').splitToList(fieldName);
             return getProps(primary, parts);
         }
-        return fields.get(fieldName);
+        return getFields().get(fieldName);
     }
 
     public Map<String, Properties> getFields() {
-        return fields;
+        //read from the mapping each time, as fields learned from json are copied on write.
+        return primary.getFields();
     }
 
 
     public boolean isObject(String fieldName) {
-        Properties props = fields.get(fieldName);
+        Properties props = getFields().get(fieldName);
         if (props != null) return Properties.Type.object.equals(props.getType());
         return false;
     }
@@ -114,9 +123,13 @@ public class Options {
 
 
     public static Options getOptions(String columnName, ColumnFamilyStore baseCfs, String json) {
+        return getOptions(columnName, baseCfs.metadata, json);
+    }
+
+    public static Options getOptions(String columnName, CFMetaData metadata, String json) {
         try {
             Properties mapping = jsonMapper.readValue(json, Properties.class);
-            return new Options(mapping, baseCfs, columnName);
+            return new Options(mapping, metadata, columnName);
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -125,19 +138,22 @@ public class Options {
 
 
     public Options(Properties mapping, ColumnFamilyStore baseCfs, String colName) {
+        this(mapping, baseCfs.metadata, colName);
+    }
+
+    public Options(Properties mapping, CFMetaData metadata, String colName) {
         this.primary = mapping;
-        this.fields = mapping.getFields();
         //getForRow all the fields options.
         indexedColumnNames = new TreeSet<>();
         indexedColumnNames.addAll(mapping.getFields().keySet());
 
         clusteringKeysIndexed = new LinkedHashMap<>();
         Set<String> added = new HashSet<>(indexedColumnNames.size());
-        List<ColumnDefinition> clusteringKeys = baseCfs.metadata.clusteringKeyColumns();
+        List<ColumnDefinition> clusteringKeys = metadata.clusteringKeyColumns();
         fieldTypes = new TreeMap<>();
         validators = new TreeMap<>();
         collectionFieldTypes = new TreeMap<>();
-        numericFieldOptions = new HashMap<>();
+        numericFieldOptions = new ConcurrentHashMap<>();
         for (ColumnDefinition colDef : clusteringKeys) {
             String columnName = CFDefinition.definitionType.getString(colDef.name);
             if (logger.isDebugEnabled()) {
@@ -155,11 +171,14 @@ public class Options {
         for (String columnName : indexedColumnNames) {
             if (added.add(columnName.toLowerCase())) {
                 Properties options = mapping.getFields().get(columnName);
-                ColumnDefinition colDef = getColumnDefinition(baseCfs, columnName);
+                ColumnDefinition colDef = getColumnDefinition(metadata, columnName);
                 if (options.getType() == Properties.Type.object) {
                     mapping.fields.putAll(options.fields);
                 }
                 if (colDef != null) {
+                    if (options.isDeweyIds() && colDef.getValidator() instanceof BytesType) {
+                        throw new IllegalArgumentException(String.format("Column %s holds Smile encoded json, which cannot be indexed with deweyIds", columnName));
+                    }
                     validators.put(columnName, colDef.getValidator());
                     addFieldType(columnName, colDef.getValidator(), numericFieldOptions, options, fieldTypes, collectionFieldTypes);
                 } else {
@@ -172,10 +191,16 @@ public class Options {
         Analyzer defaultAnalyzer = mapping.getAnalyzer();
         this.perFieldAnalyzers = mapping.perFieldAnalyzers();
         this.analyzer = new PerFieldAnalyzerWrapper(defaultAnalyzer, perFieldAnalyzers);
+        this.indexSort = mapping.getIndexSort() != null ? mapping.getIndexSort().sort(this) : null;
+        this.hasNested = mapping.hasNested();
+        if (hasNested && indexSort != null) {
+            //sorting merged segments would break up the blocks of nested documents.
+            throw new IllegalArgumentException("Nested json paths cannot be indexed with an indexSort");
+        }
     }
 
-    private static ColumnDefinition getColumnDefinition(ColumnFamilyStore baseCfs, String columnName) {
-        Iterable<ColumnDefinition> cols = baseCfs.metadata.regularAndStaticColumns();
+    private static ColumnDefinition getColumnDefinition(CFMetaData metadata, String columnName) {
+        Iterable<ColumnDefinition> cols = metadata.regularAndStaticColumns();
         for (ColumnDefinition columnDefinition : cols) {
             String fromColDef = CFDefinition.definitionType.getString(columnDefinition.name);
             if (fromColDef.equalsIgnoreCase(columnName)) return columnDefinition;
@@ -231,6 +256,54 @@ public class Options {
         }
     }
 
+    /**
+     * Adds the types learned before to the mapping, and keeps the types learned from now on in the learned mappings.
+     */
+    public synchronized void setLearnedMappings(LearnedMappings learnedMappings) {
+        for (Map.Entry<String, Map<String, Properties.Type>> column : learnedMappings.getColumns().entrySet()) {
+            for (Map.Entry<String, Properties.Type> field : column.getValue().entrySet()) {
+                learn(column.getKey(), field.getKey(), field.getValue());
+            }
+        }
+        this.learnedMappings = learnedMappings;
+    }
+
+    /**
+     * Maps the unmapped json paths of a column to the types learned from a document, so that later documents are
+     * indexed and queried with the mapping.
+     *
+     * @param column the json column.
+     * @param types  the types of the values by field name.
+     */
+    public synchronized void learn(String column, Map<String, Properties.Type> types) {
+        boolean learned = false;
+        for (Map.Entry<String, Properties.Type> entry : types.entrySet()) {
+            String fieldName = entry.getKey();
+            //field names are lower cased when they are queried.
+            if (!fieldName.equals(fieldName.toLowerCase())) continue;
+            if (learn(column, fieldName, entry.getValue())) {
+                if (logger.isDebugEnabled())
+                    logger.debug(String.format("Learned type [%s] of field [%s] in column [%s]", entry.getValue(), fieldName, column));
+                if (learnedMappings != null) learnedMappings.put(column, fieldName, entry.getValue());
+                learned = true;
+            }
+        }
+        if (learned && learnedMappings != null) learnedMappings.save();
+    }
+
+    private boolean learn(String column, String fieldName, Properties.Type type) {
+        Properties mapping = getFields().get(column);
+        if (mapping == null || mapping.getType() != Properties.Type.object) return false;
+        List<String> path = Splitter.on('.').splitToList(fieldName);
+        if (getProps(mapping, path) != null) return false;
+        Properties properties = mapping.learn(path, type);
+        //like the mapped fields, the first level of the json is also a field of the mapping.
+        primary.addField(path.get(0), mapping.getFields().get(path.get(0)));
+        NumericConfig numericConfig = Utils.numericConfig(properties.dynamicFieldType());
+        if (numericConfig != null) numericFieldOptions.put(fieldName, numericConfig);
+        return true;
+    }
+
     public static Properties getProps(Properties rootMapping, Iterable<String> fieldName) {
         Iterator<String> parts = fieldName.iterator();
         //init current as primary field properties
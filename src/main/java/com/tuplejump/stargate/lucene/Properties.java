@@ -1,10 +1,19 @@
 package com.tuplejump.stargate.lucene;
 
+import com.tuplejump.stargate.Dates;
 import com.tuplejump.stargate.Fields;
+import com.tuplejump.stargate.FormatDateTimeFormatter;
 import com.tuplejump.stargate.Utils;
+import com.tuplejump.stargate.lucene.json.JsonPathTrie;
+import com.tuplejump.stargate.lucene.json.dewey.DeweyIdAnalyzer;
+import com.tuplejump.stargate.lucene.query.Search;
+import com.tuplejump.stargate.lucene.query.Sort;
 import org.apache.cassandra.cql3.CQL3Type;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.reverse.ReverseStringFilter;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.queryparser.flexible.standard.config.NumericConfig;
@@ -13,6 +22,8 @@ import org.apache.lucene.util.Version;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -31,6 +42,31 @@ public class Properties {
         ID_FIELD.indexed = true;
     }
 
+    /**
+     * What a search does when the index is still being built after waiting buildWaitMs.
+     */
+    public enum WhileBuilding {
+        fail,
+        partial
+    }
+
+    public static final long DEFAULT_BUILD_WAIT_MS = 10000;
+
+    /**
+     * How the fields of a json object which are not in its mapping are handled. An object without a mode takes the
+     * mode of the object it is in.
+     */
+    public enum Dynamic {
+        //indexed by their json type.
+        index,
+        //skipped along with everything under them.
+        ignore,
+        //the json value is not indexed.
+        strict,
+        //indexed by their json type, which is learned as the mapping of numeric fields.
+        learn
+    }
+
     public enum Type {
         object,
         map,
@@ -103,13 +139,52 @@ public class Properties {
     int numericPrecisionStep = NumericUtils.PRECISION_STEP_DEFAULT;
 
     @JsonProperty
-    Map<String, Properties> fields = new HashMap<>();
+    Boolean sortable;
+
+    @JsonProperty
+    Sort indexSort;
+
+    @JsonProperty
+    List<Search> warmers;
+
+    @JsonProperty
+    Boolean warmMergedSegments;
+
+    @JsonProperty
+    IndexWriterSettings indexWriter;
+
+    @JsonProperty
+    Long buildWaitMs;
+
+    @JsonProperty
+    WhileBuilding whileBuilding;
+
+    @JsonProperty
+    Dynamic dynamic;
+
+    @JsonProperty
+    Boolean deweyIds;
+
+    @JsonProperty
+    Boolean nested;
+
+    @JsonProperty
+    String format;
+
+    @JsonProperty
+    Autocomplete autocomplete;
+
+    @JsonProperty
+    Boolean reverseIndex;
+
+    @JsonProperty
+    volatile Map<String, Properties> fields = new HashMap<>();
 
     boolean lowerCased;
 
     public Type getType() {
         if (type == null) {
-            if (fields != null && !fields.isEmpty()) return Type.object;
+            if ((fields != null && !fields.isEmpty()) || isNested()) return Type.object;
         }
         return type;
     }
@@ -152,7 +227,7 @@ public class Properties {
                 if (val.type != null) {
                     if (val.type == Type.object) {
                         dynamicNumericConfigMap.putAll(val.getDynamicNumericConfig());
-                    } else if (val.type.isNumeric()) {
+                    } else if (val.type.isNumeric() || val.type == Type.date) {
                         dynamicNumericConfigMap.put(colName, Utils.numericConfig(val.dynamicFieldType()));
                     }
                 }
@@ -173,6 +248,40 @@ public class Properties {
         return dynamicFieldType;
     }
 
+    private FormatDateTimeFormatter dateFormatter;
+
+    /**
+     * @return the formatter of the values of this date field, compiled when first used and again after its format is set.
+     */
+    public FormatDateTimeFormatter dateFormatter() {
+        if (dateFormatter == null) {
+            dateFormatter = format == null ? Dates.DEFAULT_FORMATTER : Dates.forPattern(format, Locale.US);
+        }
+        return dateFormatter;
+    }
+
+    private volatile JsonPathTrie jsonPaths;
+
+    //the type was learned from json values rather than mapped in the options.
+    private boolean learned;
+
+    /**
+     * @return true if this field was added to the mapping with the type learned from its json values.
+     */
+    public boolean learned() {
+        return learned;
+    }
+
+    /**
+     * @return the json paths of this object field, compiled when first parsed and again after its mapping is set.
+     */
+    public JsonPathTrie jsonPaths() {
+        if (jsonPaths == null) {
+            jsonPaths = JsonPathTrie.compile(this);
+        }
+        return jsonPaths;
+    }
+
     public boolean isIndexed() {
         return indexed != null ? indexed : true;
     }
@@ -218,6 +327,92 @@ public class Properties {
         return omitNorms != null ? omitNorms : true;
     }
 
+    /**
+     * The order in which documents are kept inside merged segments. Only meaningful on the root mapping.
+     */
+    public Sort getIndexSort() {
+        return indexSort;
+    }
+
+    /**
+     * Searches run against every new searcher before it is published. Only meaningful on the root mapping.
+     */
+    public List<Search> getWarmers() {
+        return warmers;
+    }
+
+    public IndexWriterSettings getIndexWriterSettings() {
+        return indexWriter != null ? indexWriter : new IndexWriterSettings();
+    }
+
+    public long getBuildWaitMs() {
+        return buildWaitMs != null ? buildWaitMs : DEFAULT_BUILD_WAIT_MS;
+    }
+
+    public WhileBuilding getWhileBuilding() {
+        return whileBuilding != null ? whileBuilding : WhileBuilding.fail;
+    }
+
+    /**
+     * @return the mode set on this object, or null if it takes the mode of its parent.
+     */
+    public Dynamic getDynamic() {
+        return dynamic;
+    }
+
+    public void setDynamic(Dynamic dynamic) {
+        this.dynamic = dynamic;
+        this.jsonPaths = null;
+    }
+
+    /**
+     * @return true if the json of this object column is also indexed with the dewey id of each token, for nested conditions.
+     */
+    public boolean isDeweyIds() {
+        return deweyIds != null ? deweyIds : false;
+    }
+
+    /**
+     * @return true if each object at this json path is also indexed as a document of its own, in a block with the
+     * document of its row, for block join nested conditions.
+     */
+    public boolean isNested() {
+        return nested != null ? nested : false;
+    }
+
+    /**
+     * @return true if this field or a field under it is nested.
+     */
+    public boolean hasNested() {
+        if (isNested()) return true;
+        for (Properties field : getFields().values()) {
+            if (field.hasNested()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the edge n-grams indexed for prefix conditions on this field, or null if they are not indexed.
+     */
+    public Autocomplete getAutocomplete() {
+        return autocomplete;
+    }
+
+    /**
+     * @return true if the reversed terms of this field are also indexed, for patterns with a leading wildcard.
+     */
+    public boolean isReverseIndex() {
+        return reverseIndex != null ? reverseIndex : false;
+    }
+
+    public boolean isWarmMergedSegments() {
+        return warmMergedSegments != null ? warmMergedSegments : true;
+    }
+
+    public boolean isSortable() {
+        return sortable != null ? sortable : false;
+    }
+
     public FieldInfo.IndexOptions getIndexOptions() {
         return indexOptions;
     }
@@ -260,12 +455,56 @@ public class Properties {
 
     }
 
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+        this.dateFormatter = null;
+    }
+
     public void setAnalyzer(String analyzer) {
         this.analyzer = analyzer;
     }
 
     public void setFields(Map<String, Properties> mapping) {
         this.fields = mapping;
+        this.jsonPaths = null;
+    }
+
+    /**
+     * Maps a json path under this object, which was not mapped, to the type learned from its values. Objects on the
+     * path which are not mapped are added. Fields are copied on write, as json is parsed while they are learned.
+     *
+     * @param path the field names of the path.
+     * @return the properties of the path.
+     */
+    public synchronized Properties learn(List<String> path, Type type) {
+        Properties field = getFields().get(path.get(0));
+        if (field == null) {
+            field = new Properties();
+            if (path.size() > 1) {
+                field.setType(Type.object);
+            } else {
+                field.setType(type);
+                field.learned = true;
+            }
+            addField(path.get(0), field);
+        }
+        jsonPaths = null;
+        return path.size() > 1 ? field.learn(path.subList(1, path.size()), type) : field;
+    }
+
+    /**
+     * Adds a field unless it is mapped, copying the fields on write.
+     */
+    synchronized void addField(String name, Properties field) {
+        if (getFields().containsKey(name)) return;
+        Map<String, Properties> fields = new HashMap<>(getFields());
+        fields.put(name, field);
+        this.fields = fields;
+        this.jsonPaths = null;
     }
 
     public Map<String, Analyzer> perFieldAnalyzers() {
@@ -279,14 +518,47 @@ public class Properties {
                     for (Map.Entry<String, Analyzer> entry : fieldObjectAnalyzers.entrySet()) {
                         perFieldAnalyzers.put(colName + "." + entry.getKey(), entry.getValue());
                     }
+                    if (props.isDeweyIds()) {
+                        perFieldAnalyzers.put(Fields.deweyFieldName(colName), new DeweyIdAnalyzer(luceneVersion));
+                    }
                 } else {
                     perFieldAnalyzers.put(fieldOptions.getKey(), fieldOptions.getValue().getAnalyzer());
+                    if (props.getAutocomplete() != null || props.isReverseIndex()) {
+                        if (props.getType() == null || !props.getType().isCharSeq()) {
+                            throw new IllegalArgumentException(String.format("Field %s is not text or string and cannot be autocompleted or reverse indexed", colName));
+                        }
+                        //the terms of a field which is not tokenized are its values as they are.
+                        Analyzer terms = props.isTokenized() ? props.getAnalyzer() : new KeywordAnalyzer();
+                        if (props.getAutocomplete() != null) {
+                            perFieldAnalyzers.put(Fields.autocompleteFieldName(colName), props.getAutocomplete().analyzer(terms));
+                        }
+                        if (props.isReverseIndex()) {
+                            perFieldAnalyzers.put(Fields.reversedFieldName(colName), reversed(terms));
+                        }
+                    }
                 }
             }
         }
         return perFieldAnalyzers;
     }
 
+    /**
+     * @return an analyzer which makes the terms of the analyzer reversed.
+     */
+    private static Analyzer reversed(final Analyzer analyzer) {
+        return new AnalyzerWrapper(analyzer.getReuseStrategy()) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return analyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return new TokenStreamComponents(components.getTokenizer(), new ReverseStringFilter(luceneVersion, components.getTokenStream()));
+            }
+        };
+    }
+
     public static FieldType fieldType(Properties properties, AbstractType validator) {
         FieldType fieldType = new FieldType();
         fieldType.setIndexed(properties.isIndexed());
@@ -316,12 +588,13 @@ public class Properties {
         fieldType.setStoreTermVectorPositions(properties.isStoreTermVectorPositions());
         fieldType.setOmitNorms(properties.isOmitNorms());
         fieldType.setIndexOptions(properties.getIndexOptions());
-        if (properties.getType().isNumeric()) {
+        if (properties.getType().isNumeric() || properties.getType() == Type.date) {
             switch (properties.getType()) {
                 case integer:
                     fieldType.setNumericType(FieldType.NumericType.INT);
                     break;
                 case bigint:
+                case date:
                     fieldType.setNumericType(FieldType.NumericType.LONG);
                     break;
                 case decimal:
@@ -0,0 +1,43 @@
+package com.tuplejump.stargate.lucene;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Weight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * User: satya
+ * <p/>
+ * An IndexSearcher which logs the time spent searching each segment at debug level.
+ * When created with an executor, top-k and sorted searches run the segments concurrently and merge the hits.
+ */
+public class SegmentTimingIndexSearcher extends IndexSearcher {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentTimingIndexSearcher.class);
+
+    public SegmentTimingIndexSearcher(IndexReader reader, ExecutorService executor) {
+        super(reader, executor);
+    }
+
+    @Override
+    protected void search(List<AtomicReaderContext> leaves, Weight weight, Collector collector) throws IOException {
+        if (!logger.isDebugEnabled()) {
+            super.search(leaves, weight, collector);
+            return;
+        }
+        for (AtomicReaderContext leaf : leaves) {
+            long start = System.nanoTime();
+            super.search(Collections.singletonList(leaf), weight, collector);
+            long taken = System.nanoTime() - start;
+            logger.debug(String.format("Segment [%s] with [%s] docs searched in [%s] micro seconds on [%s]",
+                    leaf.ord, leaf.reader().maxDoc(), taken / 1000, Thread.currentThread().getName()));
+        }
+    }
+}
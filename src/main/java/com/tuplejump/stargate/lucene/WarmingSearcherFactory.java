@@ -0,0 +1,79 @@
+package com.tuplejump.stargate.lucene;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.tuplejump.stargate.Constants;
+import com.tuplejump.stargate.Utils;
+import com.tuplejump.stargate.lucene.query.Search;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.Sort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * User: satya
+ * <p/>
+ * Warms every searcher before the SearcherManager publishes it.
+ * The row key and timestamp doc values read for every search result are loaded for each segment
+ * and then the warmers declared in the index options are run.
+ * <p/>
+ * If the system property sg.search.threads is greater than 0, searchers share a node wide pool of that many threads
+ * to search the segments of a query concurrently.
+ */
+public class WarmingSearcherFactory extends SearcherFactory {
+    private static final Logger logger = LoggerFactory.getLogger(WarmingSearcherFactory.class);
+
+    private static final int WARMER_HITS = 10;
+
+    public static final int SEARCH_THREADS = Integer.getInteger("sg.search.threads", 0);
+
+    private static final ExecutorService searchExecutor = SEARCH_THREADS > 0 ?
+            Executors.newFixedThreadPool(SEARCH_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SGIndex - Search Thread - %d").build())
+            : null;
+
+    private final Options options;
+
+    private final String indexName;
+
+    public WarmingSearcherFactory(Options options, String indexName) {
+        this.options = options;
+        this.indexName = indexName;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader) throws IOException {
+        IndexSearcher searcher = new SegmentTimingIndexSearcher(reader, searchExecutor);
+        Utils.SimpleTimer timer = Utils.getStartedTimer(logger);
+        for (AtomicReaderContext leaf : reader.leaves()) {
+            leaf.reader().getSortedDocValues(Constants.PK_NAME_DOC_VAL);
+            leaf.reader().getNumericDocValues(Constants.CF_TS_DOC_VAL);
+        }
+        List<Search> warmers = options.primary.getWarmers();
+        if (warmers != null) {
+            for (Search warmer : warmers) {
+                try {
+                    Query query = warmer.query(options);
+                    Sort sort = warmer.sort(options);
+                    if (sort == null) {
+                        searcher.search(query, WARMER_HITS);
+                    } else {
+                        searcher.search(query, WARMER_HITS, sort);
+                    }
+                } catch (Exception e) {
+                    //a broken warmer should never stop a searcher from being published.
+                    logger.warn(indexName + " Warmer failed - " + warmer, e);
+                }
+            }
+        }
+        timer.endLogTime(indexName + " Warming searcher with [" + reader.leaves().size() + "] segments took -");
+        return searcher;
+    }
+}
@@ -0,0 +1,14 @@
+package com.tuplejump.stargate.lucene.json;
+
+/**
+ * User: satya
+ * <p/>
+ * Thrown for a json document which its dynamic mapping does not allow, which is a field that is not mapped when the
+ * dynamic mode of its object is strict.
+ */
+public class DynamicMappingException extends IllegalArgumentException {
+
+    public DynamicMappingException(String message) {
+        super(message);
+    }
+}
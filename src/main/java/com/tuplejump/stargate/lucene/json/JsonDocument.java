@@ -6,10 +6,13 @@ import org.apache.lucene.document.Field;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.map.MappingJsonFactory;
+import org.codehaus.jackson.smile.SmileFactory;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * User: satya
@@ -17,8 +20,11 @@ import java.util.List;
  */
 public abstract class JsonDocument implements Iterable<Field> {
     public static final JsonFactory jsonFactory = new MappingJsonFactory();
+    public static final SmileFactory smileFactory = new SmileFactory();
 
     protected List<Field> fields = new ArrayList<>();
+    protected List<List<Field>> nestedFields = new ArrayList<>();
+    protected Map<String, Properties.Type> learnedTypes = new LinkedHashMap<>();
     protected Properties jsonMapping;
     protected String jsonColName;
 
@@ -35,6 +41,20 @@ public abstract class JsonDocument implements Iterable<Field> {
         return fields;
     }
 
+    /**
+     * @return The fields of each object at a nested path, which are also in the fields of the document.
+     */
+    public List<List<Field>> getNestedFields() {
+        return nestedFields;
+    }
+
+    /**
+     * @return The types of the values of unmapped json paths whose types are learned, by field name.
+     */
+    public Map<String, Properties.Type> getLearnedTypes() {
+        return learnedTypes;
+    }
+
     protected JsonDocument(Properties properties, String jsonColName) {
         this.jsonColName = jsonColName;
         this.jsonMapping = properties.getFields().get(jsonColName);
@@ -0,0 +1,112 @@
+package com.tuplejump.stargate.lucene.json;
+
+import com.tuplejump.stargate.lucene.Properties;
+import org.apache.lucene.document.FieldType;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * User: satya
+ * <p/>
+ * The mapping of a json column compiled into a tree of json paths. Each node holds the full field name, the
+ * properties and the lucene FieldType of its path, so that parsing a json document looks up one child per field name
+ * instead of walking the mapping from the root and joining the path for every token.
+ * <p/>
+ * Nodes for field names which are not in the mapping are created when first seen and kept, up to
+ * MAX_DYNAMIC_CHILDREN per node so that documents with arbitrary keys do not grow the tree without bound.
+ * There are no such nodes under an object whose dynamic mode is ignore or strict.
+ */
+public class JsonPathTrie {
+
+    public static final int MAX_DYNAMIC_CHILDREN = 1024;
+
+    public final String fieldName;
+
+    public final Properties properties;
+
+    public final FieldType fieldType;
+
+    public final Properties.Dynamic dynamic;
+
+    private final Map<String, JsonPathTrie> children;
+
+    private final ConcurrentMap<String, JsonPathTrie> dynamicChildren = new ConcurrentHashMap<>();
+
+    private JsonPathTrie(String fieldName, Properties properties, Properties.Dynamic parentDynamic) {
+        this.fieldName = fieldName;
+        this.properties = properties;
+        this.fieldType = properties != null ? properties.dynamicFieldType() : null;
+        this.dynamic = properties != null && properties.getDynamic() != null ? properties.getDynamic() : parentDynamic;
+        Map<String, Properties> fields = properties != null ? properties.getFields() : null;
+        if (fields == null || fields.isEmpty()) {
+            children = Collections.emptyMap();
+        } else {
+            children = new HashMap<>(fields.size() * 2);
+            for (Map.Entry<String, Properties> field : fields.entrySet()) {
+                children.put(field.getKey(), new JsonPathTrie(childName(field.getKey()), field.getValue(), dynamic));
+            }
+        }
+    }
+
+    /**
+     * @param mapping the properties of a json column, or null if it has none.
+     * @return the root of the paths of the column. Its field name is empty.
+     */
+    public static JsonPathTrie compile(Properties mapping) {
+        return new JsonPathTrie("", mapping, Properties.Dynamic.index);
+    }
+
+    /**
+     * @return the node of a field of the object at this path, or null if the field is not mapped and the
+     * dynamic mode is ignore or strict.
+     */
+    public JsonPathTrie child(String name) {
+        JsonPathTrie child = children.get(name);
+        if (child != null) return child;
+        if (dynamic == Properties.Dynamic.ignore || dynamic == Properties.Dynamic.strict) return null;
+        child = dynamicChildren.get(name);
+        if (child != null) return child;
+        child = new JsonPathTrie(childName(name), null, dynamic);
+        if (dynamicChildren.size() < MAX_DYNAMIC_CHILDREN) {
+            JsonPathTrie existing = dynamicChildren.putIfAbsent(name, child);
+            if (existing != null) return existing;
+        }
+        return child;
+    }
+
+    /**
+     * @return true if values at this path are indexed with the mapped properties rather than by their json type.
+     */
+    public boolean isMapped() {
+        return fieldType != null;
+    }
+
+    /**
+     * @return true if the type of values at this path is to be learned, as it is not mapped.
+     */
+    public boolean learnsType() {
+        return dynamic == Properties.Dynamic.learn && properties == null;
+    }
+
+    /**
+     * @return true if no field of an object at this path is indexed, so the object can be skipped.
+     */
+    public boolean skipsObject() {
+        return dynamic == Properties.Dynamic.ignore && children.isEmpty();
+    }
+
+    /**
+     * @return true if no element of an array at this path is indexed, so the array can be skipped.
+     */
+    public boolean skipsArray() {
+        return skipsObject() && !isMapped();
+    }
+
+    String childName(String name) {
+        return fieldName.isEmpty() ? name : fieldName + '.' + name;
+    }
+}
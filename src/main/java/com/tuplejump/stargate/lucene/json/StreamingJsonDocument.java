@@ -1,22 +1,51 @@
 package com.tuplejump.stargate.lucene.json;
 
-import com.google.common.base.Joiner;
 import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.lucene.Properties;
-import org.apache.lucene.document.FieldType;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.lucene.document.Field;
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.smile.SmileConstants;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * User: satya
  * A JsonDocument which uses a streaming json parser to construct the list of fields.
  * This uses lesser memory than the regular json document which has a DOM based parser.
+ * The json may also be Smile encoded, which is parsed without decoding and tokenizing text. Json bytes are taken to
+ * be Smile encoded when they start with the Smile header.
+ * <p/>
+ * The parser keeps a stack of the json paths of the enclosing objects and arrays. Field names are relative to the
+ * column and joined with '.', and arrays do not add to the name, so {"friends":[{"name":"x"}]} gives friends.name.
+ * Fields which are not mapped are skipped with everything under them when the dynamic mode of their object is ignore,
+ * and fail the document when it is strict. When it is learn, the types of unmapped numeric values are collected so
+ * that they can be added to the mapping, and a value which does not fit the type learned for its field is indexed by
+ * its json type as when it is not mapped.
+ * <p/>
+ * The fields of an object at a nested path, or of each object in an array at a nested path, are also collected for
+ * a nested document of the object. Objects at nested paths under a nested object are not nested again.
  */
 public class StreamingJsonDocument extends JsonDocument {
 
+    private static final int INITIAL_DEPTH = 8;
+
+    private JsonPathTrie[] stack = new JsonPathTrie[INITIAL_DEPTH];
+
+    private boolean[] inArray = new boolean[INITIAL_DEPTH];
+
+    private int depth;
+
+    //the fields of the nested object being parsed, and the depth at which it ends.
+    private List<Field> nested;
+
+    private int nestedDepth;
 
     /**
      * @param json        The json to parse and make fields.
@@ -26,104 +55,200 @@ public class StreamingJsonDocument extends JsonDocument {
     public StreamingJsonDocument(String json, Properties properties, String jsonColName) {
         super(properties, jsonColName);
         try {
-            JsonParser jp = jsonFactory.createJsonParser(json);
-            List<String> fieldName = new ArrayList<>();
-            String levelFieldName = null;
+            parse(jsonFactory.createJsonParser(json));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param json        The json to parse and make fields, Smile encoded if it starts with the Smile header and text
+     *                    otherwise. Smile makes the same fields as the text json.
+     * @param properties  The mapping for making lucene fields from the Json.
+     * @param jsonColName
+     */
+    public StreamingJsonDocument(ByteBuffer json, Properties properties, String jsonColName) {
+        super(properties, jsonColName);
+        try {
+            JsonFactory factory = isSmile(json) ? smileFactory : jsonFactory;
+            if (json.hasArray()) {
+                parse(factory.createJsonParser(json.array(), json.arrayOffset() + json.position(), json.remaining()));
+            } else {
+                parse(factory.createJsonParser(ByteBufferUtil.getArray(json)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return true if the bytes start with the header which the Smile generator writes.
+     */
+    static boolean isSmile(ByteBuffer bytes) {
+        int start = bytes.position();
+        return bytes.remaining() >= 3
+                && bytes.get(start) == SmileConstants.HEADER_BYTE_1
+                && bytes.get(start + 1) == SmileConstants.HEADER_BYTE_2
+                && bytes.get(start + 2) == SmileConstants.HEADER_BYTE_3;
+    }
+
+    private void parse(JsonParser jp) {
+        JsonPathTrie root = jsonMapping != null ? jsonMapping.jsonPaths() : JsonPathTrie.compile(null);
+        try {
+            //the path of the next value, the field just named or the enclosing array.
+            JsonPathTrie path = root;
             JsonToken current = jp.nextToken();
-            JsonToken last = null;
             while (current != null) {
-                Properties currentProps = getProps(fieldName);
-                FieldType fieldType = currentProps != null ? currentProps.dynamicFieldType() : null;
-                String currentFieldName = Joiner.on('.').join(fieldName);
                 switch (current) {
                     case START_OBJECT:
-                        pushLevelFieldName(fieldName, levelFieldName);
+                        if (path.skipsObject()) {
+                            jp.skipChildren();
+                            path = valuePath(root);
+                        } else {
+                            push(path, false);
+                            if (nested == null && path != root && path.properties != null && path.properties.isNested()) {
+                                nested = new ArrayList<>();
+                                nested.add(Fields.nestedPathField(path.fieldName));
+                                nestedDepth = depth;
+                            }
+                        }
                         break;
 
-                    case END_OBJECT:
-                        if (fieldName.size() > 0) {
-                            levelFieldName = fieldName.remove(fieldName.size() - 1);
+                    case START_ARRAY:
+                        if (path.skipsArray()) {
+                            jp.skipChildren();
+                            path = valuePath(root);
+                        } else {
+                            push(path, true);
                         }
                         break;
 
-                    case START_ARRAY:
-                        pushLevelFieldName(fieldName, levelFieldName);
-                        levelFieldName = null;
+                    case END_OBJECT:
+                        if (nested != null && depth == nestedDepth) {
+                            nestedFields.add(nested);
+                            nested = null;
+                        }
+                        depth--;
+                        path = valuePath(root);
+                        break;
 
                     case END_ARRAY:
-                        if (fieldName.size() > 0)
-                            fieldName.remove(fieldName.size() - 1);
-                        if (last == JsonToken.END_OBJECT)
-                            levelFieldName = null;
+                        depth--;
+                        path = valuePath(root);
                         break;
 
                     case FIELD_NAME:
-                        levelFieldName = jp.getText();
-                        fieldName.add(levelFieldName);
+                        JsonPathTrie parent = stack[depth - 1];
+                        path = parent.child(jp.getCurrentName());
+                        if (path == null) {
+                            if (parent.dynamic == Properties.Dynamic.strict) {
+                                throw new DynamicMappingException("Field [" + parent.childName(jp.getCurrentName()) + "] is not mapped and dynamic is strict");
+                            }
+                            //the value of an ignored field, with everything under it.
+                            jp.nextToken();
+                            jp.skipChildren();
+                            path = valuePath(root);
+                        }
                         break;
 
                     case VALUE_STRING:
-                        if (currentProps == null) {
-                            fields.add(Fields.textField(currentFieldName, jp.getText()));
+                        if (path.isMapped()) {
+                            String text = jp.getText();
+                            add(mappedField(path, text, current));
+                            if (path.properties.getAutocomplete() != null) {
+                                add(Fields.autocompleteField(path.fieldName, text));
+                            }
+                            if (path.properties.isReverseIndex()) {
+                                add(Fields.reversedField(path.fieldName, text));
+                            }
                         } else {
-                            fields.add(Fields.field(currentFieldName, currentProps, jp.getText(), fieldType));
+                            add(Fields.textField(path.fieldName, jp.getText()));
                         }
-                        popLevelFieldName(fieldName, levelFieldName);
+                        path = valuePath(root);
                         break;
 
                     case VALUE_NUMBER_FLOAT:
-                        if (currentProps == null) {
-                            fields.add(Fields.doubleField(currentFieldName, jp.getText()));
+                        if (path.isMapped()) {
+                            add(mappedField(path, jp.getText(), current));
                         } else {
-                            fields.add(Fields.field(currentFieldName, currentProps, jp.getText(), fieldType));
+                            add(Fields.doubleField(path.fieldName, jp.getText()));
+                            if (path.learnsType()) learn(path, Properties.Type.bigdecimal);
                         }
-                        popLevelFieldName(fieldName, levelFieldName);
+                        path = valuePath(root);
                         break;
 
                     case VALUE_NUMBER_INT:
-                        if (currentProps == null) {
-                            fields.add(Fields.longField(currentFieldName, jp.getText()));
+                        if (path.isMapped()) {
+                            add(mappedField(path, jp.getText(), current));
                         } else {
-                            fields.add(Fields.field(currentFieldName, currentProps, jp.getText(), fieldType));
+                            add(Fields.longField(path.fieldName, jp.getText()));
+                            if (path.learnsType()) learn(path, Properties.Type.bigint);
                         }
-                        popLevelFieldName(fieldName, levelFieldName);
+                        path = valuePath(root);
                         break;
 
                     case VALUE_TRUE:
-                        fields.add(Fields.stringField(currentFieldName, "true"));
-                        popLevelFieldName(fieldName, levelFieldName);
+                        add(Fields.stringField(path.fieldName, "true"));
+                        path = valuePath(root);
                         break;
 
                     case VALUE_FALSE:
-                        fields.add(Fields.stringField(currentFieldName, "false"));
-                        popLevelFieldName(fieldName, levelFieldName);
+                        add(Fields.stringField(path.fieldName, "false"));
+                        path = valuePath(root);
                         break;
 
                     case VALUE_NULL:
-                        fields.add(Fields.stringField(currentFieldName, "_NULL_"));
-                        popLevelFieldName(fieldName, levelFieldName);
+                        add(Fields.stringField(path.fieldName, "_NULL_"));
+                        path = valuePath(root);
                         break;
 
                     default:
                         //do nothing
                         break;
                 }
-                last = current;
                 current = jp.nextToken();
             }
-        } catch (Exception e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
 
+    private Field mappedField(JsonPathTrie path, String value, JsonToken token) {
+        try {
+            return Fields.field(path.fieldName, path.properties, value, path.fieldType);
+        } catch (NumberFormatException e) {
+            if (!path.properties.learned()) throw e;
+            //the type was learned from an earlier document, so a value of another json type does not fail this one.
+            if (token == JsonToken.VALUE_NUMBER_FLOAT) return Fields.doubleField(path.fieldName, value);
+            if (token == JsonToken.VALUE_NUMBER_INT) return Fields.longField(path.fieldName, value);
+            return Fields.textField(path.fieldName, value);
+        }
     }
 
-    private void pushLevelFieldName(List<String> fieldName, String levelFieldName) {
-        if (levelFieldName != null) {
-            fieldName.add(levelFieldName);
+    private void learn(JsonPathTrie path, Properties.Type type) {
+        if (!learnedTypes.containsKey(path.fieldName)) learnedTypes.put(path.fieldName, type);
+    }
+
+    private void add(Field field) {
+        fields.add(field);
+        if (nested != null) nested.add(field);
+    }
+
+    private void push(JsonPathTrie path, boolean array) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+            inArray = Arrays.copyOf(inArray, depth * 2);
         }
+        stack[depth] = path;
+        inArray[depth] = array;
+        depth++;
     }
 
-    private void popLevelFieldName(List<String> fieldName, String levelFieldName) {
-        fieldName.remove(levelFieldName);
+    /**
+     * @return the path of the value after the current one - the enclosing array for its next element, otherwise
+     * the root until a field is named.
+     */
+    private JsonPathTrie valuePath(JsonPathTrie root) {
+        return depth > 0 && inArray[depth - 1] ? stack[depth - 1] : root;
     }
 }
@@ -1,32 +1,34 @@
 package com.tuplejump.stargate.lucene.json.dewey;
 
-import com.tuplejump.stargate.lucene.CaseInsensitiveKeywordAnalyzer;
-import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.core.SimpleAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
-import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.analysis.util.CharacterUtils;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.Version;
 
 import java.io.IOException;
 
 /**
  * User: satya
+ * <p/>
+ * Splits the json string values into lower cased words as the SimpleAnalyzer does, and lower cases the field names,
+ * numbers and booleans as single terms as the CaseInsensitiveKeywordAnalyzer does. The words of a value keep its
+ * type and dewey id payload. The words are cut from a copy of the value which is reused across tokens.
  */
 public class DeweyFieldTokenizer extends TokenFilter {
-    private CharTermAttribute termAtt;
-    private TypeAttribute typeAtt;
-    private PayloadAttribute payloadAtt;
+    //the longest word of the LetterTokenizer used by the SimpleAnalyzer.
+    private static final int MAX_WORD_LEN = 255;
 
-    boolean increment = false;
-    private TokenStream currentStream;
-    private CharTermAttribute tokenTermAtt;
-
-    Version version;
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+    private final CharacterUtils charUtils;
 
+    private char[] value = new char[64];
+    private int valueLength;
+    private int position;
+    private boolean inValue;
 
     /**
      * Construct a token stream filtering the given input.
@@ -35,62 +37,60 @@ public class DeweyFieldTokenizer extends TokenFilter {
      */
     protected DeweyFieldTokenizer(Version version, TokenStream input) {
         super(input);
-        initAttributes();
-        this.version = version;
+        this.charUtils = CharacterUtils.getInstance(version);
     }
 
     @Override
     public void reset() throws IOException {
         super.reset();
-        initAttributes();
-    }
-
-    private void initAttributes() {
-        termAtt = input.getAttribute(CharTermAttribute.class);
-        typeAtt = input.getAttribute(TypeAttribute.class);
-        payloadAtt = input.getAttribute(PayloadAttribute.class);
-    }
-
-    /**
-     * Initialise the attributes of the inner stream used to tokenize the incoming token.
-     */
-    private void initTokenAttributes() {
-        tokenTermAtt = currentStream.addAttribute(CharTermAttribute.class);
+        inValue = false;
     }
 
-
     @Override
     public boolean incrementToken() throws IOException {
-        do {
-            if (!increment) {
+        while (true) {
+            if (!inValue) {
                 if (!input.incrementToken()) {
                     return false;
                 }
-                String type = typeAtt.type();
-                Analyzer analyzer;
-                if (type == DeweyTokenizer.STRING) {
-                    analyzer = new SimpleAnalyzer(version);
-                } else {
-                    analyzer = new CaseInsensitiveKeywordAnalyzer(version);
+                if (typeAtt.type() != DeweyTokenizer.STRING) {
+                    charUtils.toLowerCase(termAtt.buffer(), 0, termAtt.length());
+                    return true;
                 }
-                currentStream = analyzer.tokenStream("", termAtt.toString());
-                currentStream.reset();
-                this.initTokenAttributes();
+                valueLength = termAtt.length();
+                value = ArrayUtil.grow(value, valueLength);
+                System.arraycopy(termAtt.buffer(), 0, value, 0, valueLength);
+                position = 0;
+                inValue = true;
+            }
+            if (nextWord()) {
+                return true;
             }
-            increment = currentStream.incrementToken();
-        } while (!increment);
-        this.copyAttributes();
-        return true;
+            inValue = false;
+        }
     }
 
-    private void copyAttributes() {
-        BytesRef payload = payloadAtt.getPayload();
-        String type = typeAtt.type();
-        input.clearAttributes();
-        final int len = tokenTermAtt.length();
-        termAtt.copyBuffer(tokenTermAtt.buffer(), 0, len);
-        typeAtt.setType(type);
-        payloadAtt.setPayload(payload);
+    /**
+     * Sets the term to the next run of letters in the value, lower cased. The type and payload are left as they are.
+     */
+    private boolean nextWord() {
+        char[] buffer = termAtt.buffer();
+        int length = 0;
+        while (position < valueLength) {
+            int codePoint = Character.codePointAt(value, position, valueLength);
+            position += Character.charCount(codePoint);
+            if (Character.isLetter(codePoint)) {
+                if (length + 2 > buffer.length) {
+                    buffer = termAtt.resizeBuffer(length + 2);
+                }
+                length += Character.toChars(Character.toLowerCase(codePoint), buffer, length);
+                if (length >= MAX_WORD_LEN) break;
+            } else if (length > 0) {
+                break;
+            }
+        }
+        termAtt.setLength(length);
+        return length > 0;
     }
 
 }
@@ -17,13 +17,9 @@ public class DeweyIdAnalyzer extends Analyzer {
 
     @Override
     protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
-        try {
-            DeweyTokenizer source = new DeweyTokenizer(reader);
-            JsonTypeFilter payloadFilter = new JsonTypeFilter(version, source);
-            DeweyFieldTokenizer sink = new DeweyFieldTokenizer(version, payloadFilter);
-            return new TokenStreamComponents(source, sink);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        DeweyTokenizer source = new DeweyTokenizer(reader);
+        JsonTypeFilter payloadFilter = new JsonTypeFilter(version, source);
+        DeweyFieldTokenizer sink = new DeweyFieldTokenizer(version, payloadFilter);
+        return new TokenStreamComponents(source, sink);
     }
 }
@@ -0,0 +1,191 @@
+package com.tuplejump.stargate.lucene.json.dewey;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.FieldCacheDocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * User: satya
+ * <p/>
+ * Accepts the documents in which all the clauses match values in the same object under a json path, using the dewey
+ * ids of a field analyzed by the DeweyIdAnalyzer. A clause is a path under the nested path and the words of a value,
+ * which must all be found in the same value. When the nested path holds an array, the values must be in the same
+ * element of the array.
+ * <p/>
+ * The filter reads the positions of its terms only for the documents it is asked about, so it is meant to be applied
+ * to the documents matching all its terms. Documents must be asked about in increasing order.
+ */
+public class DeweyNestedFilter extends Filter {
+
+    private final String field;
+
+    private final String[] path;
+
+    private final List<String[]> clausePaths;
+
+    private final List<String[]> clauseWords;
+
+    /**
+     * @param field       the field analyzed by the DeweyIdAnalyzer.
+     * @param path        the field names of the nested path.
+     * @param clausePaths the field names of each clause under the nested path.
+     * @param clauseWords the words of the value of each clause.
+     */
+    public DeweyNestedFilter(String field, String[] path, List<String[]> clausePaths, List<String[]> clauseWords) {
+        this.field = field;
+        this.path = path;
+        this.clausePaths = clausePaths;
+        this.clauseWords = clauseWords;
+    }
+
+    /**
+     * @return all the terms which a document must have to be accepted.
+     */
+    public Set<String> terms() {
+        Set<String> terms = new HashSet<>(Arrays.asList(path));
+        for (String[] clausePath : clausePaths) terms.addAll(Arrays.asList(clausePath));
+        for (String[] words : clauseWords) terms.addAll(Arrays.asList(words));
+        return terms;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        AtomicReader reader = context.reader();
+        final Map<String, DocsAndPositionsEnum> positions = new LinkedHashMap<>();
+        //the ids of the field names and of the values of each term, refilled for each document of the segment.
+        final Map<String, Set<IntsRef>> fieldIds = new HashMap<>();
+        final Map<String, List<int[]>> valueIds = new HashMap<>();
+        for (String term : terms()) {
+            DocsAndPositionsEnum termPositions = reader.termPositionsEnum(new Term(field, term));
+            //a term which is not in the segment
+            if (termPositions == null) return null;
+            positions.put(term, termPositions);
+            fieldIds.put(term, new HashSet<IntsRef>());
+            valueIds.put(term, new ArrayList<int[]>());
+        }
+        return new FieldCacheDocIdSet(reader.maxDoc(), acceptDocs) {
+            @Override
+            protected boolean matchDoc(int doc) {
+                try {
+                    return matches(doc, positions, fieldIds, valueIds);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private boolean matches(int doc, Map<String, DocsAndPositionsEnum> positions,
+                            Map<String, Set<IntsRef>> fieldIds, Map<String, List<int[]>> valueIds) throws IOException {
+        for (DocsAndPositionsEnum termPositions : positions.values()) {
+            if (termPositions.docID() < doc) termPositions.advance(doc);
+            if (termPositions.docID() != doc) return false;
+        }
+        for (Map.Entry<String, DocsAndPositionsEnum> entry : positions.entrySet()) {
+            DocsAndPositionsEnum termPositions = entry.getValue();
+            Set<IntsRef> fields = fieldIds.get(entry.getKey());
+            List<int[]> values = valueIds.get(entry.getKey());
+            fields.clear();
+            values.clear();
+            for (int i = 0; i < termPositions.freq(); i++) {
+                termPositions.nextPosition();
+                BytesRef payload = termPositions.getPayload();
+                if (payload == null) continue;
+                int[] id = DeweyTokenizer.decode(payload);
+                if (DeweyTokenizer.isFieldName(id[id.length - 1])) {
+                    fields.add(new IntsRef(id, 0, id.length));
+                } else {
+                    values.add(id);
+                }
+            }
+        }
+        Set<IntsRef> scopes = null;
+        for (int i = 0; i < clausePaths.size(); i++) {
+            Set<IntsRef> clauseScopes = clauseScopes(clausePaths.get(i), clauseWords.get(i), fieldIds, valueIds);
+            if (scopes == null) {
+                scopes = clauseScopes;
+            } else {
+                scopes.retainAll(clauseScopes);
+            }
+            if (scopes.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the ids of the objects under the nested path with a value having all the words under the clause path.
+     */
+    private Set<IntsRef> clauseScopes(String[] clausePath, String[] words, Map<String, Set<IntsRef>> fieldIds, Map<String, List<int[]>> valueIds) {
+        Set<IntsRef> nodes = null;
+        for (String word : words) {
+            Set<IntsRef> wordNodes = new HashSet<>();
+            for (int[] id : valueIds.get(word)) {
+                if (isUnder(id, clausePath, fieldIds)) wordNodes.add(new IntsRef(id, 0, id.length));
+            }
+            if (nodes == null) {
+                nodes = wordNodes;
+            } else {
+                nodes.retainAll(wordNodes);
+            }
+        }
+        Set<IntsRef> scopes = new HashSet<>();
+        for (IntsRef node : nodes) {
+            //the object holding the first field name of the clause path
+            scopes.add(new IntsRef(node.ints, 0, fieldLevel(node.ints, path.length)));
+        }
+        return scopes;
+    }
+
+    /**
+     * @return true if the field names above the value are the nested path followed by the clause path.
+     */
+    private boolean isUnder(int[] id, String[] clausePath, Map<String, Set<IntsRef>> fieldIds) {
+        int fieldNames = 0;
+        for (int level = 0; level < id.length; level++) {
+            if (!DeweyTokenizer.isFieldName(id[level])) continue;
+            if (fieldNames == path.length + clausePath.length) return false;
+            String name = fieldNames < path.length ? path[fieldNames] : clausePath[fieldNames - path.length];
+            if (!fieldIds.get(name).contains(new IntsRef(id, 0, level + 1))) return false;
+            fieldNames++;
+        }
+        return fieldNames == path.length + clausePath.length;
+    }
+
+    /**
+     * @return the level of the nth field name of an id.
+     */
+    private static int fieldLevel(int[] id, int n) {
+        int fieldNames = 0;
+        for (int level = 0; level < id.length; level++) {
+            if (DeweyTokenizer.isFieldName(id[level]) && fieldNames++ == n) return level;
+        }
+        return id.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DeweyNestedFilter(").append(field).append(':');
+        builder.append(Arrays.toString(path));
+        for (int i = 0; i < clausePaths.size(); i++) {
+            builder.append(' ').append(Arrays.toString(clausePaths.get(i))).append('=').append(Arrays.toString(clauseWords.get(i)));
+        }
+        return builder.append(')').toString();
+    }
+}
@@ -5,16 +5,30 @@ import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 
-import java.io.*;
-import java.util.Stack;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 
 /**
  * User: satya
+ * <p/>
+ * Tokenizes a json into its field names and values, with the dewey id of each token as its payload.
+ * Every node of the json has a dewey id which is the id of its parent followed by its position among its siblings.
+ * The nodes under an object are its field names, and the value of a field is the only node under the field name,
+ * so in {"a":1,"b":[2,3]} a is 0.0, 1 is 0.0.0, b is 0.1, the array is 0.1.0 and 3 is 0.1.0.1.
+ * <p/>
+ * A dewey id is encoded as the vInt number of levels followed by a vInt per level. A level is the position shifted
+ * left by one, with the low bit set for the field names of an object, so that field names can be told apart from values
+ * and from the elements of arrays. Objects and arrays do not produce tokens. The term, payload and level buffers are
+ * reused across tokens.
  */
 public class DeweyTokenizer extends Tokenizer {
 
@@ -23,114 +37,187 @@ public class DeweyTokenizer extends Tokenizer {
     public static final String NUMBER = "NUMBER";
     public static final String BOOLEAN = "BOOLEAN";
     public static final String NULL = "NULL";
+    private static final char[] TRUE = "true".toCharArray();
+    private static final char[] FALSE = "false".toCharArray();
+    private static final char[] NULL_TERM = "null".toCharArray();
+
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
     private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
     private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
-    Stack<Integer> levelStack;
-    int siblingId;
-    JsonToken lastEvent;
-    JsonParser js;
+    private final BytesRef payload = new BytesRef(32);
+    private final ByteArrayDataOutput payloadOut = new ByteArrayDataOutput();
+    //the position of the next node at each level, whether the level holds the value of a field and whether it holds
+    //the field names of an object.
+    private int[] positions = new int[8];
+    private boolean[] fieldValue = new boolean[8];
+    private boolean[] fieldNames = new boolean[8];
+    private int depth;
+    private JsonParser js;
 
-    /**
-     * creates a new PatternTokenizer returning tokens from group (-1 for split functionality)
-     */
-    public DeweyTokenizer(Reader input) throws IOException {
+    public DeweyTokenizer(Reader input) {
         super(input);
-        js = JsonDocument.jsonFactory.createJsonParser(input);
-        levelStack = new Stack<>();
     }
 
     @Override
     public void reset() throws IOException {
         super.reset();
         js = JsonDocument.jsonFactory.createJsonParser(input);
-        levelStack = new Stack<>();
+        depth = 0;
+        positions[0] = 0;
+        fieldValue[0] = false;
+        fieldNames[0] = false;
     }
 
     @Override
     public boolean incrementToken() throws IOException {
         clearAttributes();
-        if (js.nextToken() == null) return false;
-        JsonToken evt = js.nextToken();
-        if (evt == null) return false;
-
-        if (evt == JsonToken.START_OBJECT || evt == JsonToken.START_ARRAY || evt == JsonToken.FIELD_NAME) {
-            levelStack.push(siblingId);
-            siblingId = 0;
-            lastEvent = evt;
-            if (!(evt == JsonToken.FIELD_NAME))
-                return true;
+        JsonToken evt;
+        while ((evt = js.nextToken()) != null) {
+            switch (evt) {
+                case START_OBJECT:
+                    push(false, true);
+                    break;
+
+                case START_ARRAY:
+                    push(false, false);
+                    break;
+
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    endNode();
+                    break;
+
+                case FIELD_NAME:
+                    setTerm(js, FIELD);
+                    //the value of the field is the node under its name.
+                    push(true, false);
+                    return true;
+
+                case VALUE_STRING:
+                    setTerm(js, STRING);
+                    endNode();
+                    return true;
+
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    setTerm(js, NUMBER);
+                    endNode();
+                    return true;
+
+                case VALUE_FALSE:
+                    setTerm(FALSE, BOOLEAN);
+                    endNode();
+                    return true;
+
+                case VALUE_TRUE:
+                    setTerm(TRUE, BOOLEAN);
+                    endNode();
+                    return true;
+
+                case VALUE_NULL:
+                    setTerm(NULL_TERM, NULL);
+                    endNode();
+                    return true;
+
+                default:
+                    break;
+            }
         }
-        if (evt == JsonToken.END_OBJECT || evt == JsonToken.END_ARRAY) {
-            siblingId = levelStack.size() > 0 ? levelStack.pop() : 0;
-            siblingId++;
-            lastEvent = evt;
-            return true;
+        return false;
+    }
+
+    /**
+     * Starts the level of the nodes under the current node.
+     */
+    private void push(boolean isFieldValue, boolean isFieldNames) {
+        if (depth + 1 == positions.length) {
+            positions = ArrayUtil.grow(positions, depth + 2);
+            fieldValue = ArrayUtil.grow(fieldValue, depth + 2);
+            fieldNames = ArrayUtil.grow(fieldNames, depth + 2);
         }
-        lastEvent = evt;
-
-        switch (evt) {
-            case FIELD_NAME:
-                setTerm(js.getText());
-                typeAtt.setType(FIELD);
-                break;
-
-            case VALUE_STRING:
-                setTerm(js.getText());
-                typeAtt.setType(STRING);
-                break;
-
-            case VALUE_NUMBER_INT:
-            case VALUE_NUMBER_FLOAT:
-                setTerm(js.getNumberValue().toString());
-                typeAtt.setType(NUMBER);
-                break;
-
-            case VALUE_FALSE:
-                setTerm("false");
-                typeAtt.setType(BOOLEAN);
-                break;
-
-            case VALUE_TRUE:
-                setTerm("true");
-                typeAtt.setType(BOOLEAN);
-                break;
-
-            case VALUE_NULL:
-                setTerm("null");
-                typeAtt.setType(NULL);
-                break;
-
-            default:
-                break;
+        depth++;
+        positions[depth] = 0;
+        fieldValue[depth] = isFieldValue;
+        fieldNames[depth] = isFieldNames;
+    }
+
+    /**
+     * Moves past the current node, and past its field name if it is the value of a field.
+     */
+    private void endNode() {
+        positions[depth]++;
+        if (fieldValue[depth]) {
+            depth--;
+            positions[depth]++;
         }
-        //set the dewey id as payload
-        payloadAtt.setPayload(new BytesRef(encodeLevel()));
+    }
+
+    private void setTerm(JsonParser js, String type) throws IOException {
+        termAtt.copyBuffer(js.getTextCharacters(), js.getTextOffset(), js.getTextLength());
+        setType(type);
+    }
 
-        return true;
+    private void setTerm(char[] term, String type) throws IOException {
+        termAtt.copyBuffer(term, 0, term.length);
+        setType(type);
     }
 
+    private void setType(String type) throws IOException {
+        typeAtt.setType(type);
+        //set the dewey id as payload
+        encodeLevel();
+        payloadAtt.setPayload(payload);
+    }
 
-    private byte[] encodeLevel() throws IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        DataOutput dataOutputBuffer = new DataOutputStream(os);
-        int size = levelStack.size() + 1;
-        dataOutputBuffer.writeShort(size);
-        for (int level : levelStack) {
-            dataOutputBuffer.writeInt(level);
+    private void encodeLevel() throws IOException {
+        int maxLength = (depth + 2) * 5;
+        if (payload.bytes.length < maxLength) {
+            payload.bytes = new byte[ArrayUtil.oversize(maxLength, 1)];
+        }
+        payloadOut.reset(payload.bytes);
+        payloadOut.writeVInt(depth + 1);
+        for (int i = 0; i <= depth; i++) {
+            payloadOut.writeVInt(positions[i] << 1 | (fieldNames[i] ? 1 : 0));
+        }
+        payload.offset = 0;
+        payload.length = payloadOut.getPosition();
+    }
+
+    /**
+     * @return the levels of an encoded dewey id.
+     * @see #position(int)
+     * @see #isFieldName(int)
+     */
+    public static int[] decode(BytesRef bytes) throws IOException {
+        ByteArrayDataInput in = new ByteArrayDataInput(bytes.bytes, bytes.offset, bytes.length);
+        int[] levels = new int[in.readVInt()];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = in.readVInt();
         }
-        dataOutputBuffer.writeInt(siblingId);
-        return os.toByteArray();
+        return levels;
     }
 
-    public static CharSequence decodeLevel(byte[] bytes) throws IOException {
-        StringBuffer stringBuffer = new StringBuffer();
-        DataInput is = new DataInputStream(new ByteArrayInputStream(bytes));
-        int size = is.readShort();
-        for (int i = 0; i < size; i++) {
-            stringBuffer.append(is.readInt()).append('.');
+    /**
+     * @return the position of a node among its siblings, from its level.
+     */
+    public static int position(int level) {
+        return level >>> 1;
+    }
+
+    /**
+     * @return true if the node at the level is a field name.
+     */
+    public static boolean isFieldName(int level) {
+        return (level & 1) != 0;
+    }
+
+    public static CharSequence decodeLevel(BytesRef bytes) throws IOException {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int level : decode(bytes)) {
+            stringBuilder.append(position(level)).append('.');
         }
-        return stringBuffer;
+        return stringBuilder;
     }
 
     public static void main(String[] args) throws IOException {
@@ -193,15 +280,9 @@ public class DeweyTokenizer extends Tokenizer {
             System.out.print(typeAtt.type() + "\t");
             BytesRef payload = payloadAtt.getPayload();
             if (payload != null)
-                System.out.print(DeweyTokenizer.decodeLevel(payload.bytes) + "\n");
+                System.out.print(DeweyTokenizer.decodeLevel(payload) + "\n");
         }
 
 
     }
-
-
-    public void setTerm(String term) {
-        char[] chars = term.toCharArray();
-        termAtt.copyBuffer(term.toCharArray(), 0, chars.length);
-    }
 }
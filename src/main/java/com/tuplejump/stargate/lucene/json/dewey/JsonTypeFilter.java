@@ -9,6 +9,8 @@ import java.io.IOException;
 
 /**
  * User: satya
+ * <p/>
+ * Drops the null values of a json, which are not indexed.
  */
 public class JsonTypeFilter extends FilteringTokenFilter {
     private final TypeAttribute typeAttribute = addAttribute(TypeAttribute.class);
@@ -19,9 +21,6 @@ public class JsonTypeFilter extends FilteringTokenFilter {
 
     @Override
     protected boolean accept() throws IOException {
-        String type = typeAttribute.type();
-        if (type == DeweyTokenizer.FIELD || type == DeweyTokenizer.STRING || type == DeweyTokenizer.NUMBER || type == DeweyTokenizer.BOOLEAN)
-            return true;
-        return false;
+        return typeAttribute.type() != DeweyTokenizer.NULL;
     }
 }
@@ -42,6 +42,7 @@ import java.io.IOException;
  * <li> {@link LuceneCondition}
  * <li> {@link FuzzyCondition}
  * <li> {@link MatchCondition}
+ * <li> {@link NestedCondition}
  * <li> {@link PhraseCondition}
  * <li> {@link PrefixCondition}
  * <li> {@link RangeCondition}
@@ -53,6 +54,7 @@ import java.io.IOException;
         @JsonSubTypes.Type(value = FuzzyCondition.class, name = "fuzzy"),
         @JsonSubTypes.Type(value = LuceneCondition.class, name = "lucene"),
         @JsonSubTypes.Type(value = MatchCondition.class, name = "match"),
+        @JsonSubTypes.Type(value = NestedCondition.class, name = "nested"),
         @JsonSubTypes.Type(value = RangeCondition.class, name = "range"),
         @JsonSubTypes.Type(value = PhraseCondition.class, name = "phrase"),
         @JsonSubTypes.Type(value = PrefixCondition.class, name = "prefix"),
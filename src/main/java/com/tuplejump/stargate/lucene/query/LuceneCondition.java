@@ -16,13 +16,19 @@
 package com.tuplejump.stargate.lucene.query;
 
 import com.tuplejump.stargate.lucene.Options;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.WildcardQuery;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 /**
- * A {@link Condition} implementation that matches documents satisfying a Lucene Query Syntax.
+ * A {@link Condition} implementation that matches documents satisfying a Lucene Query Syntax. Wildcard terms starting
+ * with a wildcard, on fields indexed with reverseIndex, are matched against the reversed terms of the field as
+ * {@link WildcardCondition} does.
  */
 public class LuceneCondition extends Condition {
 
@@ -85,7 +91,7 @@ public class LuceneCondition extends Condition {
             StandardQueryParser parser = new StandardQueryParser(schema.analyzer);
             parser.setNumericConfigMap(schema.numericFieldOptions);
             parser.setAllowLeadingWildcard(true);
-            Query luceneQuery = parser.parse(query, getDefaultField(schema));
+            Query luceneQuery = reverseLeadingWildcards(parser.parse(query, getDefaultField(schema)), schema);
             luceneQuery.setBoost(boost);
             logger.debug("Lucene query is {}", luceneQuery);
             return luceneQuery;
@@ -94,6 +100,25 @@ public class LuceneCondition extends Condition {
         }
     }
 
+    /**
+     * @return the query with the wildcard queries which can be matched reversed replaced.
+     */
+    private static Query reverseLeadingWildcards(Query query, Options schema) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                clause.setQuery(reverseLeadingWildcards(clause.getQuery(), schema));
+            }
+        } else if (query instanceof WildcardQuery) {
+            Term term = ((WildcardQuery) query).getTerm();
+            Query reversed = WildcardCondition.reversedQuery(schema.getProperties(term.field()), term.field(), term.text());
+            if (reversed != null) {
+                reversed.setBoost(query.getBoost());
+                return reversed;
+            }
+        }
+        return query;
+    }
+
     /**
      * {@inheritDoc}
      */
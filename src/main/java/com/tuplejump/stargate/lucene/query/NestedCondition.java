@@ -0,0 +1,219 @@
+package com.tuplejump.stargate.lucene.query;
+
+import com.google.common.base.Splitter;
+import com.tuplejump.stargate.Fields;
+import com.tuplejump.stargate.lucene.Options;
+import com.tuplejump.stargate.lucene.Properties;
+import com.tuplejump.stargate.lucene.json.dewey.DeweyNestedFilter;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.join.ScoreMode;
+import org.apache.lucene.search.join.ToParentBlockJoinQuery;
+import org.apache.lucene.util.IOUtils;
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Condition} that matches documents in which all of its {@link MatchCondition}s match in the same object
+ * of a json path, e.g. in the same element of an array of objects. The fields of the match conditions are relative
+ * to the path.
+ * <p/>
+ * When the path is nested, each object at the path has a document in the block of its row, and the rows with a
+ * document matching all the conditions are found with a block join. Otherwise the json column must be indexed with
+ * deweyIds. The documents having all the words of the conditions are found first, and the dewey ids of the words are
+ * then compared within each of those documents.
+ */
+public class NestedCondition extends Condition {
+
+    /**
+     * The json column, which may be left out if only one column is indexed with deweyIds
+     */
+    private final String column;
+
+    /**
+     * The json path of the objects
+     */
+    private final String path;
+
+    private final List<Condition> must;
+
+    /**
+     * @param boost  The boost for this query clause. Documents matching this clause will (in addition to the normal
+     *               weightings) have their score multiplied by {@code boost}.
+     * @param column the json column.
+     * @param path   the json path of the objects, with field names separated by '.'.
+     * @param must   the {@link MatchCondition}s which must match in the same object.
+     */
+    @JsonCreator
+    public NestedCondition(@JsonProperty("boost") Float boost,
+                           @JsonProperty("column") String column,
+                           @JsonProperty("path") String path,
+                           @JsonProperty("must") List<Condition> must) {
+        super(boost);
+        this.column = column != null ? column.toLowerCase() : null;
+        this.path = path != null ? path.toLowerCase() : null;
+        this.must = must == null ? new LinkedList<Condition>() : must;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public List<Condition> getMust() {
+        return must;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Query query(Options schema) throws Exception {
+        if (path == null || path.trim().isEmpty()) {
+            throw new IllegalArgumentException("Path required");
+        }
+        if (must.isEmpty()) {
+            throw new IllegalArgumentException("Nested conditions required");
+        }
+        List<MatchCondition> matches = new ArrayList<>(must.size());
+        for (Condition condition : must) {
+            if (!(condition instanceof MatchCondition)) {
+                throw new IllegalArgumentException("Only match conditions are supported in nested conditions");
+            }
+            MatchCondition match = (MatchCondition) condition;
+            if (match.getField() == null || match.getField().trim().isEmpty()) {
+                throw new IllegalArgumentException("Field name required");
+            }
+            if (match.getValue() == null) {
+                throw new IllegalArgumentException("Field value required");
+            }
+            matches.add(match);
+        }
+        Properties properties = schema.getProperties(path);
+        Query query = properties != null && properties.isNested() ? blockJoinQuery(schema, matches) : deweyQuery(schema, matches);
+        query.setBoost(boost);
+        return query;
+    }
+
+    /**
+     * @return a query for the rows with a nested document of the path which matches all the conditions.
+     */
+    private Query blockJoinQuery(Options schema, List<MatchCondition> matches) throws Exception {
+        BooleanQuery nested = new BooleanQuery();
+        nested.add(new TermQuery(Fields.nestedPathTerm(path)), Occur.MUST);
+        for (MatchCondition match : matches) {
+            MatchCondition pathMatch = new MatchCondition(match.boost, path + '.' + match.getField(), match.getValue());
+            nested.add(pathMatch.query(schema), Occur.MUST);
+        }
+        return new ToParentBlockJoinQuery(nested, Fields.rowsFilter(), ScoreMode.Max);
+    }
+
+    /**
+     * @return a query for the rows with all the words of the conditions, filtered by their dewey ids.
+     */
+    private Query deweyQuery(Options schema, List<MatchCondition> matches) throws Exception {
+        String field = Fields.deweyFieldName(deweyColumn(schema));
+        Analyzer analyzer = schema.perFieldAnalyzers.get(field);
+        List<String[]> clausePaths = new ArrayList<>(matches.size());
+        List<String[]> clauseWords = new ArrayList<>(matches.size());
+        for (MatchCondition match : matches) {
+            String[] words = words(field, match.getValue(), analyzer);
+            if (words.length == 0) {
+                throw new IllegalArgumentException("Value discarded by analyzer");
+            }
+            clausePaths.add(names(match.getField()));
+            clauseWords.add(words);
+        }
+        DeweyNestedFilter filter = new DeweyNestedFilter(field, names(path), clausePaths, clauseWords);
+        BooleanQuery terms = new BooleanQuery();
+        for (String term : filter.terms()) {
+            terms.add(new TermQuery(new Term(field, term)), Occur.MUST);
+        }
+        return new FilteredQuery(terms, filter, FilteredQuery.QUERY_FIRST_FILTER_STRATEGY);
+    }
+
+    private String deweyColumn(Options schema) {
+        if (column != null) {
+            Properties properties = schema.getFields().get(column);
+            if (properties == null || properties.getType() != Properties.Type.object || !properties.isDeweyIds()) {
+                throw new IllegalArgumentException(String.format("Column %s is not an object indexed with deweyIds", column));
+            }
+            return column;
+        }
+        String found = null;
+        for (Map.Entry<String, Properties> entry : schema.getFields().entrySet()) {
+            Properties properties = entry.getValue();
+            if (properties.getType() == Properties.Type.object && properties.isDeweyIds()
+                    && schema.indexedColumnNames.contains(entry.getKey())) {
+                if (found != null) {
+                    throw new IllegalArgumentException("Column required, more than one column is indexed with deweyIds");
+                }
+                found = entry.getKey();
+            }
+        }
+        if (found == null) {
+            throw new IllegalArgumentException("No column is indexed with deweyIds");
+        }
+        return found;
+    }
+
+    private static String[] names(String path) {
+        return Splitter.on('.').splitToList(path).toArray(new String[0]);
+    }
+
+    /**
+     * @return the words of a json value, as the values of the dewey field are analyzed.
+     */
+    private static String[] words(String field, Object value, Analyzer analyzer) throws IOException {
+        List<String> words = new ArrayList<>();
+        TokenStream source = null;
+        try {
+            source = analyzer.tokenStream(field, Options.jsonMapper.writeValueAsString(value));
+            CharTermAttribute termAtt = source.getAttribute(CharTermAttribute.class);
+            source.reset();
+            while (source.incrementToken()) {
+                words.add(termAtt.toString());
+            }
+            source.end();
+        } finally {
+            IOUtils.closeWhileHandlingException(source);
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getClass().getSimpleName());
+        builder.append(" [boost=");
+        builder.append(boost);
+        builder.append(", column=");
+        builder.append(column);
+        builder.append(", path=");
+        builder.append(path);
+        builder.append(", must=");
+        builder.append(must);
+        builder.append("]");
+        return builder.toString();
+    }
+
+}
@@ -15,16 +15,22 @@
  */
 package com.tuplejump.stargate.lucene.query;
 
+import com.tuplejump.stargate.Fields;
+import com.tuplejump.stargate.lucene.Autocomplete;
 import com.tuplejump.stargate.lucene.Options;
 import com.tuplejump.stargate.lucene.Properties;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 /**
- * A {@link Condition} implementation that matches documents containing terms with a specified prefix.
+ * A {@link Condition} implementation that matches documents containing terms with a specified prefix. If the field
+ * is indexed for autocomplete and the prefix is one of its edge n-grams, the prefix is matched as a single term of the
+ * autocomplete field instead of being expanded over the terms of the field.
  */
 public class PrefixCondition extends Condition {
 
@@ -92,8 +98,15 @@ public class PrefixCondition extends Condition {
         Properties properties = schema.getProperties(field);
         Properties.Type fieldType = properties != null ? properties.getType() : Properties.Type.text;
         if (fieldType.isCharSeq()) {
-            Term term = new Term(field, value);
-            query = new PrefixQuery(term);
+            Autocomplete autocomplete = properties != null ? properties.getAutocomplete() : null;
+            if (autocomplete != null && autocomplete.covers(value)) {
+                //scored as a constant, as the prefix query is.
+                Term term = new Term(Fields.autocompleteFieldName(field), value);
+                query = new ConstantScoreQuery(new TermQuery(term));
+            } else {
+                Term term = new Term(field, value);
+                query = new PrefixQuery(term);
+            }
         } else {
             String message = String.format("Prefix queries are not supported by %s mapper", fieldType);
             throw new UnsupportedOperationException(message);
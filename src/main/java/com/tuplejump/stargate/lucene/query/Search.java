@@ -15,6 +15,7 @@
  */
 package com.tuplejump.stargate.lucene.query;
 
+import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.lucene.Options;
 import org.apache.lucene.search.*;
 import org.codehaus.jackson.annotate.JsonCreator;
@@ -81,6 +82,12 @@ public class Search {
      * @return The Lucene's {@link Query} representation of this search.
      */
     public Query query(Options schema) throws Exception {
+        Query query = rowsQuery(schema);
+        //the documents of nested objects are only matched through their rows.
+        return schema.hasNested ? new FilteredQuery(query, Fields.rowsFilter()) : query;
+    }
+
+    private Query rowsQuery(Options schema) throws Exception {
         Query query = queryCondition == null ? null : queryCondition.query(schema);
         Filter filter = filterCondition == null ? null : filterCondition.filter(schema);
         if (query == null && filter == null) {
@@ -15,6 +15,7 @@
  */
 package com.tuplejump.stargate.lucene.query;
 
+import com.tuplejump.stargate.Constants;
 import com.tuplejump.stargate.lucene.Options;
 import com.tuplejump.stargate.lucene.Properties;
 import org.codehaus.jackson.annotate.JsonCreator;
@@ -59,6 +60,10 @@ public class SortField {
         if (field == null || field.trim().isEmpty()) {
             throw new IllegalArgumentException("Field name required");
         }
+        if (Constants.CF_TS_INDEXED.equals(field)) {
+            //the row timestamp is always available as doc values.
+            return new org.apache.lucene.search.SortField(Constants.CF_TS_DOC_VAL, org.apache.lucene.search.SortField.Type.LONG, reverse);
+        }
         Properties properties = schema.getProperties(field);
         if (properties == null) properties = Properties.ID_FIELD;
         return sortField(field, properties, reverse);
@@ -69,7 +74,7 @@ public class SortField {
         Properties.Type cqlType = properties.getType();
         if (cqlType == Properties.Type.integer) {
             return new org.apache.lucene.search.SortField(name, org.apache.lucene.search.SortField.Type.INT, reverse);
-        } else if (cqlType == Properties.Type.bigint) {
+        } else if (cqlType == Properties.Type.bigint || cqlType == Properties.Type.date) {
             return new org.apache.lucene.search.SortField(name, org.apache.lucene.search.SortField.Type.LONG, reverse);
         } else if (cqlType == Properties.Type.bigdecimal) {
             return new org.apache.lucene.search.SortField(name, org.apache.lucene.search.SortField.Type.DOUBLE, reverse);
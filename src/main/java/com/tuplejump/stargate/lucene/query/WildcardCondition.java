@@ -15,9 +15,12 @@
  */
 package com.tuplejump.stargate.lucene.query;
 
+import com.tuplejump.stargate.Fields;
 import com.tuplejump.stargate.lucene.Options;
 import com.tuplejump.stargate.lucene.Properties;
+import org.apache.lucene.analysis.reverse.ReverseStringFilter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.WildcardQuery;
 import org.codehaus.jackson.annotate.JsonCreator;
@@ -28,7 +31,9 @@ import org.codehaus.jackson.annotate.JsonProperty;
  * (including the empty one), and {@code ?}, which matches any single character. '\' is the escape character.
  * <p/>
  * Note this query can be slow, as it needs to iterate over many terms. In order to prevent extremely slow
- * WildcardQueries, a Wildcard term should not start with the wildcard {@code *}.
+ * WildcardQueries, a Wildcard term should not start with the wildcard {@code *}, unless the field is indexed with
+ * reverseIndex. A term which starts with a wildcard and ends without one is then matched reversed against the
+ * reversed terms of the field, e.g. {@code *@gmail.com} as the prefix {@code moc.liamg@}.
  */
 public class WildcardCondition extends Condition {
 
@@ -96,8 +101,11 @@ public class WildcardCondition extends Condition {
         Properties properties = schema.getProperties(field);
         Properties.Type fieldType = properties != null ? properties.getType() : Properties.Type.text;
         if (fieldType.isCharSeq()) {
-            Term term = new Term(field, value);
-            query = new WildcardQuery(term);
+            query = reversedQuery(properties, field, value);
+            if (query == null) {
+                Term term = new Term(field, value);
+                query = new WildcardQuery(term);
+            }
         } else {
             String message = String.format("Wildcard queries are not supported by %s mapper", fieldType);
             throw new UnsupportedOperationException(message);
@@ -107,6 +115,39 @@ public class WildcardCondition extends Condition {
     }
 
 
+    /**
+     * @param properties the properties of the field, or null if it is not mapped.
+     * @param pattern    the wildcard pattern of the field.
+     * @return a query matching the reversed pattern against the reversed terms of the field, or null if the field is
+     * not indexed with reverseIndex or the pattern does not start with a wildcard and end with a literal.
+     */
+    static Query reversedQuery(Properties properties, String field, String pattern) {
+        if (properties == null || !properties.isReverseIndex()) return null;
+        if (pattern.isEmpty() || !isWildcard(pattern.charAt(0)) || isWildcard(pattern.charAt(pattern.length() - 1))) {
+            return null;
+        }
+        //escapes would apply to the wrong characters once reversed.
+        if (pattern.indexOf(WildcardQuery.WILDCARD_ESCAPE) >= 0) return null;
+        String reversed = ReverseStringFilter.reverse(Properties.luceneVersion, pattern);
+        String prefix = reversed.substring(0, reversed.length() - 1);
+        if (reversed.charAt(reversed.length() - 1) == WildcardQuery.WILDCARD_STRING && !hasWildcard(prefix)) {
+            //a suffix is a prefix of the reversed terms.
+            return new PrefixQuery(new Term(Fields.reversedFieldName(field), prefix));
+        }
+        return new WildcardQuery(new Term(Fields.reversedFieldName(field), reversed));
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == WildcardQuery.WILDCARD_STRING || c == WildcardQuery.WILDCARD_CHAR;
+    }
+
+    private static boolean hasWildcard(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (isWildcard(text.charAt(i))) return true;
+        }
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
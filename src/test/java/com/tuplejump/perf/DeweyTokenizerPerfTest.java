@@ -0,0 +1,255 @@
+package com.tuplejump.perf;
+
+import com.tuplejump.stargate.lucene.CaseInsensitiveKeywordAnalyzer;
+import com.tuplejump.stargate.lucene.json.JsonDocument;
+import com.tuplejump.stargate.lucene.json.dewey.DeweyIdAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.SimpleAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.analysis.util.FilteringTokenFilter;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Stack;
+
+/**
+ * User: satya
+ * <p/>
+ * Compares the dewey analysis chain with the one it replaced, which allocated streams and a payload per token,
+ * an analyzer per token and skipped every other json event. The old chain is kept here as it was for the comparison.
+ * Run with gradle perfTest.
+ */
+public class DeweyTokenizerPerfTest {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void compareWithPreviousChain() throws Exception {
+        String json = read("sample2.json");
+        Analyzer current = new DeweyIdAnalyzer(Version.LUCENE_48);
+        Analyzer previous = new PreviousDeweyIdAnalyzer(Version.LUCENE_48);
+        run("previous", previous, json, WARMUP_ROUNDS);
+        run("current", current, json, WARMUP_ROUNDS);
+        run("previous", previous, json, ROUNDS);
+        run("current", current, json, ROUNDS);
+    }
+
+    private void run(String name, Analyzer analyzer, String json, int rounds) throws IOException {
+        long tokens = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            TokenStream stream = analyzer.tokenStream("json", json);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens++;
+            }
+            stream.end();
+            stream.close();
+        }
+        long took = System.nanoTime() - start;
+        System.out.println(String.format("%s chain - %d rounds of %d chars, %d tokens in %d ms, %.1f MB/s",
+                name, rounds, json.length(), tokens, took / 1000000, (double) json.length() * rounds * 1000 / took));
+    }
+
+    private static String read(String resource) throws IOException {
+        InputStream is = DeweyTokenizerPerfTest.class.getClassLoader().getResourceAsStream(resource);
+        try (Reader reader = new InputStreamReader(is, "UTF-8")) {
+            StringWriter writer = new StringWriter();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+            return writer.toString();
+        }
+    }
+
+    static class PreviousDeweyIdAnalyzer extends Analyzer {
+        Version version;
+
+        PreviousDeweyIdAnalyzer(Version version) {
+            this.version = version;
+        }
+
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+            PreviousDeweyTokenizer source = new PreviousDeweyTokenizer(reader);
+            PreviousJsonTypeFilter payloadFilter = new PreviousJsonTypeFilter(version, source);
+            PreviousDeweyFieldTokenizer sink = new PreviousDeweyFieldTokenizer(version, payloadFilter);
+            return new TokenStreamComponents(source, sink);
+        }
+    }
+
+    static class PreviousDeweyTokenizer extends Tokenizer {
+        static final String FIELD = "FIELD";
+        static final String STRING = "STRING";
+        static final String NUMBER = "NUMBER";
+        static final String BOOLEAN = "BOOLEAN";
+        static final String NULL = "NULL";
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+        private final PayloadAttribute payloadAtt = addAttribute(PayloadAttribute.class);
+        Stack<Integer> levelStack = new Stack<>();
+        int siblingId;
+        JsonParser js;
+
+        PreviousDeweyTokenizer(Reader input) {
+            super(input);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            js = JsonDocument.jsonFactory.createJsonParser(input);
+            levelStack = new Stack<>();
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            clearAttributes();
+            if (js.nextToken() == null) return false;
+            JsonToken evt = js.nextToken();
+            if (evt == null) return false;
+            if (evt == JsonToken.START_OBJECT || evt == JsonToken.START_ARRAY || evt == JsonToken.FIELD_NAME) {
+                levelStack.push(siblingId);
+                siblingId = 0;
+                if (!(evt == JsonToken.FIELD_NAME))
+                    return true;
+            }
+            if (evt == JsonToken.END_OBJECT || evt == JsonToken.END_ARRAY) {
+                siblingId = levelStack.size() > 0 ? levelStack.pop() : 0;
+                siblingId++;
+                return true;
+            }
+            switch (evt) {
+                case FIELD_NAME:
+                    setTerm(js.getText());
+                    typeAtt.setType(FIELD);
+                    break;
+                case VALUE_STRING:
+                    setTerm(js.getText());
+                    typeAtt.setType(STRING);
+                    break;
+                case VALUE_NUMBER_INT:
+                case VALUE_NUMBER_FLOAT:
+                    setTerm(js.getNumberValue().toString());
+                    typeAtt.setType(NUMBER);
+                    break;
+                case VALUE_FALSE:
+                    setTerm("false");
+                    typeAtt.setType(BOOLEAN);
+                    break;
+                case VALUE_TRUE:
+                    setTerm("true");
+                    typeAtt.setType(BOOLEAN);
+                    break;
+                case VALUE_NULL:
+                    setTerm("null");
+                    typeAtt.setType(NULL);
+                    break;
+                default:
+                    break;
+            }
+            payloadAtt.setPayload(new BytesRef(encodeLevel()));
+            return true;
+        }
+
+        private byte[] encodeLevel() throws IOException {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            DataOutput dataOutputBuffer = new DataOutputStream(os);
+            dataOutputBuffer.writeShort(levelStack.size() + 1);
+            for (int level : levelStack) {
+                dataOutputBuffer.writeInt(level);
+            }
+            dataOutputBuffer.writeInt(siblingId);
+            return os.toByteArray();
+        }
+
+        void setTerm(String term) {
+            char[] chars = term.toCharArray();
+            termAtt.copyBuffer(term.toCharArray(), 0, chars.length);
+        }
+    }
+
+    static class PreviousJsonTypeFilter extends FilteringTokenFilter {
+        private final TypeAttribute typeAttribute = addAttribute(TypeAttribute.class);
+
+        PreviousJsonTypeFilter(Version version, TokenStream input) {
+            super(version, input);
+        }
+
+        @Override
+        protected boolean accept() throws IOException {
+            String type = typeAttribute.type();
+            return type == PreviousDeweyTokenizer.FIELD || type == PreviousDeweyTokenizer.STRING
+                    || type == PreviousDeweyTokenizer.NUMBER || type == PreviousDeweyTokenizer.BOOLEAN;
+        }
+    }
+
+    static class PreviousDeweyFieldTokenizer extends TokenFilter {
+        private CharTermAttribute termAtt;
+        private TypeAttribute typeAtt;
+        private PayloadAttribute payloadAtt;
+        boolean increment = false;
+        private TokenStream currentStream;
+        private CharTermAttribute tokenTermAtt;
+        Version version;
+
+        PreviousDeweyFieldTokenizer(Version version, TokenStream input) {
+            super(input);
+            initAttributes();
+            this.version = version;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            initAttributes();
+        }
+
+        private void initAttributes() {
+            termAtt = input.getAttribute(CharTermAttribute.class);
+            typeAtt = input.getAttribute(TypeAttribute.class);
+            payloadAtt = input.getAttribute(PayloadAttribute.class);
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            do {
+                if (!increment) {
+                    if (!input.incrementToken()) {
+                        return false;
+                    }
+                    Analyzer analyzer;
+                    if (typeAtt.type() == PreviousDeweyTokenizer.STRING) {
+                        analyzer = new SimpleAnalyzer(version);
+                    } else {
+                        analyzer = new CaseInsensitiveKeywordAnalyzer(version);
+                    }
+                    currentStream = analyzer.tokenStream("", termAtt.toString());
+                    currentStream.reset();
+                    tokenTermAtt = currentStream.addAttribute(CharTermAttribute.class);
+                }
+                increment = currentStream.incrementToken();
+            } while (!increment);
+            BytesRef payload = payloadAtt.getPayload();
+            String type = typeAtt.type();
+            input.clearAttributes();
+            termAtt.copyBuffer(tokenTermAtt.buffer(), 0, tokenTermAtt.length());
+            typeAtt.setType(type);
+            payloadAtt.setPayload(payload);
+            return true;
+        }
+    }
+}
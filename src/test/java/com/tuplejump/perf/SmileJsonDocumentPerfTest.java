@@ -0,0 +1,81 @@
+package com.tuplejump.perf;
+
+import com.tuplejump.stargate.lucene.Properties;
+import com.tuplejump.stargate.lucene.json.JsonDocument;
+import com.tuplejump.stargate.lucene.json.StreamingJsonDocument;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+/**
+ * User: satya
+ * <p/>
+ * Compares making the fields of a json column from text json, which is decoded from UTF-8 and tokenized, with making
+ * them from the same json Smile encoded in a blob column.
+ * Run with gradle perfTest.
+ */
+public class SmileJsonDocumentPerfTest {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void compareWithTextJson() throws Exception {
+        String json = read("sample2.json");
+        ByteBuffer text = UTF8Type.instance.decompose(json);
+        ByteBuffer smile = ByteBuffer.wrap(toSmile(json));
+        Properties jsonColProps = new Properties();
+        jsonColProps.setType(Properties.Type.object);
+        Properties rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", jsonColProps));
+
+        run("text", text, false, rootProps, WARMUP_ROUNDS);
+        run("smile", smile, true, rootProps, WARMUP_ROUNDS);
+        run("text", text, false, rootProps, ROUNDS);
+        run("smile", smile, true, rootProps, ROUNDS);
+    }
+
+    private void run(String name, ByteBuffer value, boolean isSmile, Properties rootProps, int rounds) {
+        long fields = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            JsonDocument document = isSmile
+                    ? new StreamingJsonDocument(value.duplicate(), rootProps, "jsoncol")
+                    : new StreamingJsonDocument(UTF8Type.instance.compose(value.duplicate()), rootProps, "jsoncol");
+            fields += document.getFields().size();
+        }
+        long took = System.nanoTime() - start;
+        System.out.println(String.format("%s json - %d rounds of %d bytes, %d fields in %d ms, %.1f documents/s",
+                name, rounds, value.remaining(), fields, took / 1000000, (double) rounds * 1000000000 / took));
+    }
+
+    private static byte[] toSmile(String json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonParser parser = JsonDocument.jsonFactory.createJsonParser(json);
+        JsonGenerator generator = JsonDocument.smileFactory.createJsonGenerator(out);
+        parser.nextToken();
+        generator.copyCurrentStructure(parser);
+        generator.close();
+        parser.close();
+        return out.toByteArray();
+    }
+
+    private static String read(String resource) throws IOException {
+        InputStream is = SmileJsonDocumentPerfTest.class.getClassLoader().getResourceAsStream(resource);
+        try (Reader reader = new InputStreamReader(is, "UTF-8")) {
+            StringWriter writer = new StringWriter();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+            return writer.toString();
+        }
+    }
+}
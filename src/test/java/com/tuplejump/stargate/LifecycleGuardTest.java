@@ -0,0 +1,123 @@
+package com.tuplejump.stargate;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * User: satya
+ */
+public class LifecycleGuardTest {
+
+    private final LifecycleGuard guard = new LifecycleGuard();
+
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    public void shouldReenterSharedWhileExclusiveIsWaiting() throws Exception {
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch exclusiveWaiting = new CountDownLatch(1);
+        Future<?> holder = threads.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                int stripe = guard.enterShared();
+                held.countDown();
+                exclusiveWaiting.await();
+                //a nested enter must not wait behind the exclusive side, which is waiting for this thread.
+                int nested = guard.enterShared();
+                guard.exitShared(nested);
+                guard.exitShared(stripe);
+                return null;
+            }
+        });
+        held.await();
+        Future<?> exclusive = threads.submit(new Runnable() {
+            @Override
+            public void run() {
+                guard.enterExclusive();
+                guard.exitExclusive();
+            }
+        });
+        assertBlocked(exclusive);
+        exclusiveWaiting.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        exclusive.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldReenterExclusive() throws Exception {
+        guard.enterExclusive();
+        guard.enterExclusive();
+        Future<?> shared = threads.submit(new Runnable() {
+            @Override
+            public void run() {
+                guard.exitShared(guard.enterShared());
+            }
+        });
+        guard.exitExclusive();
+        //still held once.
+        assertBlocked(shared);
+        guard.exitExclusive();
+        shared.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldEnterSharedWhileHoldingExclusive() throws Exception {
+        guard.enterExclusive();
+        int stripe = guard.enterShared();
+        guard.exitShared(stripe);
+        guard.exitExclusive();
+        Future<?> exclusive = threads.submit(new Runnable() {
+            @Override
+            public void run() {
+                guard.enterExclusive();
+                guard.exitExclusive();
+            }
+        });
+        exclusive.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldRejectUpgradeFromShared() throws Exception {
+        int stripe = guard.enterShared();
+        try {
+            guard.enterExclusive();
+            Assert.fail("The shared side should not be upgraded");
+        } catch (IllegalStateException e) {
+            //expected
+        } finally {
+            guard.exitShared(stripe);
+        }
+        Future<Boolean> exclusive = threads.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                guard.enterExclusive();
+                guard.exitExclusive();
+                return true;
+            }
+        });
+        Assert.assertTrue(exclusive.get(5, TimeUnit.SECONDS));
+    }
+
+    private void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("Should be waiting for the guard");
+        } catch (TimeoutException e) {
+            //expected
+        }
+    }
+}
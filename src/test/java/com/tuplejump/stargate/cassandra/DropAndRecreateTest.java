@@ -1,9 +1,13 @@
 package com.tuplejump.stargate.cassandra;
 
+import com.tuplejump.stargate.RowIndex;
 import com.tuplejump.stargate.util.CQLUnitD;
 import junit.framework.Assert;
+import org.apache.cassandra.db.Keyspace;
 import org.junit.Test;
 
+import java.util.Collections;
+
 /**
  * User: satya
  */
@@ -21,7 +25,12 @@ public class DropAndRecreateTest extends IndexTestBase {
         createTableAndIndex(false);
         Assert.assertEquals(8, countResults("TAG", "", false, false));
         Assert.assertEquals(3, countResults("TAG", "category = '" + q("tags", "tags:hello? AND state:CA") + "'", true));
+        RowIndex index = (RowIndex) Keyspace.open(keyspace.toLowerCase()).getColumnFamilyStore("tag").indexManager
+                .getIndexesByNames(Collections.singleton("dropcreate")).iterator().next();
+        Assert.assertTrue(index.isBuilt());
         getSession().execute("DROP INDEX dropcreate;");
+        //cassandra reuses the dropped instance when the index is created again, which must wait for the new build.
+        Assert.assertFalse(index.isBuilt());
         createTableAndIndex(true);
         Assert.assertEquals(8, countResults("TAG", "", false, false));
         Assert.assertEquals(3, countResults("TAG", "category = '" + q("tags", "tags:hello? AND state:CA") + "'", true));
@@ -5,19 +5,37 @@ import argo.jdom.JdomParser;
 import argo.jdom.JsonField;
 import argo.jdom.JsonNode;
 import argo.jdom.JsonRootNode;
+import com.tuplejump.stargate.lucene.LearnedMappings;
 import com.tuplejump.stargate.lucene.Properties;
 import com.tuplejump.stargate.lucene.json.JsonDocument;
+import com.tuplejump.stargate.lucene.json.DynamicMappingException;
 import com.tuplejump.stargate.lucene.json.StreamingJsonDocument;
+import com.tuplejump.stargate.lucene.json.dewey.DeweyIdAnalyzer;
+import com.tuplejump.stargate.lucene.json.dewey.DeweyTokenizer;
 import com.tuplejump.stargate.util.CQLUnitD;
 import junit.framework.Assert;
+import org.apache.cassandra.utils.Hex;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.util.Version;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * User: satya
@@ -96,6 +114,79 @@ public class JsonDocumentTest extends IndexTestBase {
     }
 
 
+    @Test
+    public void shouldIndexSmileJsonInBlobs() throws Exception {
+        String mappingStr = "{\"fields\":{\"jsonCol\":{\"type\":\"object\",\"fields\":{\"age\":{\"type\":\"integer\"},\"friends\":{\"fields\":{\"name\":{\"type\":\"string\"}}}}}}}";
+        String smileKeyspace = "dummyksJSONSmile";
+        createKS(smileKeyspace);
+        getSession().execute("USE " + smileKeyspace + ";");
+        getSession().execute("CREATE TABLE JSON_SMILE (key int primary key, jsonCol blob,lucene text)");
+        getSession().execute("CREATE CUSTOM INDEX jsonSmileIndex ON JSON_SMILE(lucene) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + mappingStr + "'}");
+        int i = 0;
+        for (JsonNode kid : jsonVal.getElements()) {
+            StringWriter sw = new StringWriter();
+            PrintWriter writer = new PrintWriter(sw);
+            formatJsonNode(kid, writer, 0);
+            writer.flush();
+            String smile = Hex.bytesToHex(toSmile(sw.toString()));
+            getSession().execute("insert into JSON_SMILE (key,jsonCol) values (" + (i++ + 1) + ",0x" + smile + ")");
+        }
+        Assert.assertEquals(1, countResults("JSON_SMILE", "lucene = '" + q("age", "40") + "'", true));
+        Assert.assertEquals(2, countResults("JSON_SMILE", "lucene = '" + q("tags", "good") + "'", true));
+        Assert.assertEquals(4, countResults("JSON_SMILE", "lucene = '" + mq("friends.name", "Casey Stone") + "'", true));
+        Assert.assertEquals(1, countResults("JSON_SMILE", "lucene = '" + mq("friends.name", "robyn wynn") + "'", true));
+        //text json in a blob is parsed as text.
+        String text = Hex.bytesToHex("{\"age\":77,\"tags\":[\"good\"]}".getBytes(StandardCharsets.UTF_8));
+        getSession().execute("insert into JSON_SMILE (key,jsonCol) values (" + (i + 1) + ",0x" + text + ")");
+        Assert.assertEquals(1, countResults("JSON_SMILE", "lucene = '" + q("age", "77") + "'", true));
+        Assert.assertEquals(3, countResults("JSON_SMILE", "lucene = '" + q("tags", "good") + "'", true));
+    }
+
+    @Test
+    public void shouldMakeSameFieldsFromSmileJson() throws Exception {
+        Properties ageProps = new Properties();
+        ageProps.setType(Properties.Type.integer);
+        Properties jsonColProps = new Properties();
+        jsonColProps.setType(Properties.Type.object);
+        jsonColProps.setFields(Collections.singletonMap("age", ageProps));
+        Properties rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", jsonColProps));
+
+        for (JsonNode kid : jsonVal.getElements()) {
+            StringWriter sw = new StringWriter();
+            PrintWriter writer = new PrintWriter(sw);
+            formatJsonNode(kid, writer, 0);
+            writer.flush();
+            List<Field> fields = new StreamingJsonDocument(sw.toString(), rootProps, "jsoncol").getFields();
+            List<Field> smileFields = new StreamingJsonDocument(ByteBuffer.wrap(toSmile(sw.toString())), rootProps, "jsoncol").getFields();
+            assertSameFields(fields, smileFields);
+            //text json in a blob, without the Smile header.
+            List<Field> textBlobFields = new StreamingJsonDocument(ByteBuffer.wrap(sw.toString().getBytes(StandardCharsets.UTF_8)), rootProps, "jsoncol").getFields();
+            assertSameFields(fields, textBlobFields);
+        }
+    }
+
+    private void assertSameFields(List<Field> expected, List<Field> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int f = 0; f < expected.size(); f++) {
+            Assert.assertEquals(expected.get(f).name(), actual.get(f).name());
+            Assert.assertEquals(expected.get(f).fieldType().numericType(), actual.get(f).fieldType().numericType());
+            Assert.assertEquals(String.valueOf(expected.get(f).stringValue()), String.valueOf(actual.get(f).stringValue()));
+            Assert.assertEquals(expected.get(f).numericValue(), actual.get(f).numericValue());
+        }
+    }
+
+    public static byte[] toSmile(String json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonParser parser = JsonDocument.jsonFactory.createJsonParser(json);
+        JsonGenerator generator = JsonDocument.smileFactory.createJsonGenerator(out);
+        parser.nextToken();
+        generator.copyCurrentStructure(parser);
+        generator.close();
+        parser.close();
+        return out.toByteArray();
+    }
+
     @Test
     public void shouldParseJsonAndGetFields() throws Exception {
         Properties jsonColProps = new Properties();
@@ -140,6 +231,228 @@ public class JsonDocumentTest extends IndexTestBase {
         Assert.assertEquals(2, memIndex.hits("gender:female", "jsoncol"));
     }
 
+    @Test
+    public void shouldNameNestedFieldsByPath() throws Exception {
+        Properties zipProps = new Properties();
+        zipProps.setType(Properties.Type.integer);
+        Properties addressProps = new Properties();
+        addressProps.setFields(Collections.singletonMap("zip", zipProps));
+        Properties jsonColProps = new Properties();
+        jsonColProps.setType(Properties.Type.object);
+        jsonColProps.setFields(Collections.singletonMap("address", addressProps));
+        Properties rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", jsonColProps));
+
+        String json = "{\"address\":{\"zip\":5,\"geo\":{\"lat\":1.5}},\"friends\":[{\"name\":\"a\"},{\"name\":\"b\"}],\"after\":\"z\"}";
+        List<Field> fields = new StreamingJsonDocument(json, rootProps, "jsoncol").getFields();
+        Assert.assertEquals(5, fields.size());
+        Assert.assertEquals(1, numberOfFieldsWithKey("address.zip", fields));
+        Assert.assertEquals(1, numberOfFieldsWithKey("address.geo.lat", fields));
+        Assert.assertEquals(2, numberOfFieldsWithKey("friends.name", fields));
+        Assert.assertEquals(1, numberOfFieldsWithKey("after", fields));
+        Assert.assertEquals(1, numberOfFieldsWithNumericType(FieldType.NumericType.INT, fields));
+    }
+
+    @Test
+    public void shouldParseDatesWithFieldFormat() throws Exception {
+        Properties bornProps = new Properties();
+        bornProps.setType(Properties.Type.date);
+        Properties joinedProps = new Properties();
+        joinedProps.setType(Properties.Type.date);
+        joinedProps.setFormat("dd/MM/yyyy");
+        Map<String, Properties> jsonFields = new HashMap<>();
+        jsonFields.put("born", bornProps);
+        jsonFields.put("joined", joinedProps);
+        Properties jsonColProps = new Properties();
+        jsonColProps.setType(Properties.Type.object);
+        jsonColProps.setFields(jsonFields);
+        Properties rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", jsonColProps));
+
+        String json = "{\"born\":[\"2014-03-01\",\"2014-03-01T10:15:30.250+05:30\",\"2014-03-01T10:15Z\",\"2014-03-01T10:15:30.25\",1393668930250],\"joined\":\"01/03/2014\"}";
+        List<Field> fields = new StreamingJsonDocument(json, rootProps, "jsoncol").getFields();
+        DateTimeFormatter iso = ISODateTimeFormat.dateOptionalTimeParser().withZone(DateTimeZone.UTC);
+        Assert.assertEquals(6, numberOfFieldsWithNumericType(FieldType.NumericType.LONG, fields));
+        Assert.assertEquals(iso.parseMillis("2014-03-01"), fields.get(0).numericValue().longValue());
+        Assert.assertEquals(iso.parseMillis("2014-03-01T10:15:30.250+05:30"), fields.get(1).numericValue().longValue());
+        Assert.assertEquals(iso.parseMillis("2014-03-01T10:15Z"), fields.get(2).numericValue().longValue());
+        Assert.assertEquals(iso.parseMillis("2014-03-01T10:15:30.25"), fields.get(3).numericValue().longValue());
+        Assert.assertEquals(1393668930250L, fields.get(4).numericValue().longValue());
+        Assert.assertEquals(iso.parseMillis("2014-03-01"), fields.get(5).numericValue().longValue());
+    }
+
+    @Test
+    public void shouldSkipOrRejectUnmappedFields() throws Exception {
+        Properties zipProps = new Properties();
+        zipProps.setType(Properties.Type.integer);
+        Properties addressProps = new Properties();
+        addressProps.setFields(Collections.singletonMap("zip", zipProps));
+        Properties jsonColProps = new Properties();
+        jsonColProps.setType(Properties.Type.object);
+        jsonColProps.setDynamic(Properties.Dynamic.ignore);
+        jsonColProps.setFields(Collections.singletonMap("address", addressProps));
+        Properties rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", jsonColProps));
+
+        String json = "{\"address\":{\"zip\":5,\"geo\":{\"lat\":1.5}},\"friends\":[{\"name\":\"a\"},[1,2]],\"after\":\"z\"}";
+        List<Field> fields = new StreamingJsonDocument(json, rootProps, "jsoncol").getFields();
+        Assert.assertEquals(1, fields.size());
+        Assert.assertEquals(1, numberOfFieldsWithKey("address.zip", fields));
+
+        jsonColProps.setDynamic(Properties.Dynamic.strict);
+        rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", jsonColProps));
+        try {
+            new StreamingJsonDocument(json, rootProps, "jsoncol");
+            Assert.fail("Unmapped field should be rejected in strict mode");
+        } catch (DynamicMappingException e) {
+            Assert.assertTrue(e.getMessage().contains("address.geo"));
+        }
+        //a bad value of a mapped field is not a mapping error.
+        try {
+            new StreamingJsonDocument("{\"address\":{\"zip\":\"abc\"}}", rootProps, "jsoncol");
+            Assert.fail("A value which is not a number should be rejected for a numeric field");
+        } catch (NumberFormatException e) {
+            //expected
+        }
+
+        Properties learnProps = new Properties();
+        learnProps.setType(Properties.Type.object);
+        learnProps.setDynamic(Properties.Dynamic.learn);
+        learnProps.learn(Collections.singletonList("price"), Properties.Type.bigint);
+        rootProps = new Properties();
+        rootProps.setFields(Collections.singletonMap("jsoncol", learnProps));
+        //a value which does not fit the learned type is indexed by its json type, with the rest of the document.
+        fields = new StreamingJsonDocument("{\"price\":10,\"item\":\"pen\"}", rootProps, "jsoncol").getFields();
+        Assert.assertEquals(1, numberOfFieldsWithNumericType(FieldType.NumericType.LONG, fields));
+        Assert.assertEquals(1, numberOfFieldsWithKey("item", fields));
+        fields = new StreamingJsonDocument("{\"price\":10.5,\"item\":\"pen\"}", rootProps, "jsoncol").getFields();
+        Assert.assertEquals(1, numberOfFieldsWithNumericType(FieldType.NumericType.DOUBLE, fields));
+        Assert.assertEquals(10.5, fields.get(0).numericValue().doubleValue(), 0);
+        Assert.assertEquals(1, numberOfFieldsWithKey("item", fields));
+        fields = new StreamingJsonDocument("{\"price\":\"ten\",\"item\":\"pen\"}", rootProps, "jsoncol").getFields();
+        Assert.assertEquals(1, numberOfFieldsWithKey("price", fields));
+        Assert.assertEquals(1, numberOfFieldsWithKey("item", fields));
+        Assert.assertEquals("ten", fields.get(0).stringValue());
+    }
+
+    @Test
+    public void shouldMatchNestedConditionsInSameElement() throws Exception {
+        String nestedKeyspace = "dummyksJSONNested";
+        String mappingStr = "{\"fields\":{\"jsonCol\":{\"type\":\"object\",\"deweyIds\":true}}}";
+        createKS(nestedKeyspace);
+        getSession().execute("USE " + nestedKeyspace + ";");
+        getSession().execute("CREATE TABLE JSON_NESTED (key int primary key, jsonCol varchar,lucene text)");
+        getSession().execute("CREATE CUSTOM INDEX jsonNestedIndex ON JSON_NESTED(lucene) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + mappingStr + "'}");
+        int i = 0;
+        for (JsonNode kid : jsonVal.getElements()) {
+            StringWriter sw = new StringWriter();
+            PrintWriter writer = new PrintWriter(sw);
+            formatJsonNode(kid, writer, 0);
+            writer.flush();
+            getSession().execute("insert into JSON_NESTED (key,jsonCol) values (" + (i++ + 1) + ",'" + sw.toString() + "')");
+        }
+        //across elements of friends, casey and wise match 3 rows
+        Assert.assertEquals(3, countResults("JSON_NESTED", "lucene = '" + q("friends.name", "casey AND friends.name:wise") + "'", true));
+        Assert.assertEquals(0, countResults("JSON_NESTED", "lucene = '" + nq("friends", "name", "casey", "name", "wise") + "'", true));
+        Assert.assertEquals(4, countResults("JSON_NESTED", "lucene = '" + nq("friends", "name", "Casey Stone") + "'", true));
+        Assert.assertEquals(2, countResults("JSON_NESTED", "lucene = '" + nq("friends", "name", "clark", "name", "wise") + "'", true));
+        Assert.assertEquals(0, countResults("JSON_NESTED", "lucene = '" + nq("friends", "name", "Clark Stone") + "'", true));
+        Assert.assertEquals(1, countResults("JSON_NESTED", "lucene = '" + nq("friends", "name", "Robyn Wynn") + "'", true));
+    }
+
+    @Test
+    public void shouldMatchNestedConditionsInSameBlockJoinedElement() throws Exception {
+        String nestedKeyspace = "dummyksJSONBlockJoin";
+        String mappingStr = "{\"fields\":{\"jsonCol\":{\"type\":\"object\",\"fields\":{\"friends\":{\"nested\":true}}}}}";
+        createKS(nestedKeyspace);
+        getSession().execute("USE " + nestedKeyspace + ";");
+        getSession().execute("CREATE TABLE JSON_BLOCK_JOIN (key int primary key, jsonCol varchar,lucene text)");
+        getSession().execute("CREATE CUSTOM INDEX jsonBlockJoinIndex ON JSON_BLOCK_JOIN(lucene) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + mappingStr + "'}");
+        int i = 0;
+        for (JsonNode kid : jsonVal.getElements()) {
+            StringWriter sw = new StringWriter();
+            PrintWriter writer = new PrintWriter(sw);
+            formatJsonNode(kid, writer, 0);
+            writer.flush();
+            getSession().execute("insert into JSON_BLOCK_JOIN (key,jsonCol) values (" + (i++ + 1) + ",'" + sw.toString() + "')");
+        }
+        //the nested documents are not results, the rows still have the fields of their friends
+        Assert.assertEquals(3, countResults("JSON_BLOCK_JOIN", "lucene = '" + q("friends.name", "casey AND friends.name:wise") + "'", true));
+        Assert.assertEquals(0, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "casey", "name", "wise") + "'", true));
+        Assert.assertEquals(4, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "casey", "name", "stone") + "'", true));
+        Assert.assertEquals(2, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "clark", "name", "wise") + "'", true));
+        Assert.assertEquals(0, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "clark", "name", "stone") + "'", true));
+        Assert.assertEquals(1, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "robyn", "name", "wynn") + "'", true));
+        //an update replaces the nested documents of the row
+        getSession().execute("insert into JSON_BLOCK_JOIN (key,jsonCol) values (1,'{\"friends\":[{\"name\":\"zed zulu\"}]}')");
+        Assert.assertEquals(1, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "zed", "name", "zulu") + "'", true));
+        getSession().execute("insert into JSON_BLOCK_JOIN (key,jsonCol) values (1,'{\"friends\":[{\"name\":\"zed yak\"},{\"name\":\"zulu\"}]}')");
+        Assert.assertEquals(0, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "zed", "name", "zulu") + "'", true));
+        Assert.assertEquals(1, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "zed", "name", "yak") + "'", true));
+        getSession().execute("delete from JSON_BLOCK_JOIN where key = 1");
+        Assert.assertEquals(0, countResults("JSON_BLOCK_JOIN", "lucene = '" + nq("friends", "name", "zed", "name", "yak") + "'", true));
+    }
+
+    @Test
+    public void shouldLearnTypesOfUnmappedNumericFields() throws Exception {
+        String learnKeyspace = "dummyksJSONLearn";
+        String mappingStr = "{\"fields\":{\"jsonCol\":{\"type\":\"object\",\"dynamic\":\"learn\"}}}";
+        createKS(learnKeyspace);
+        getSession().execute("USE " + learnKeyspace + ";");
+        getSession().execute("CREATE TABLE JSON_LEARN (key int primary key, jsonCol varchar,lucene text)");
+        getSession().execute("CREATE CUSTOM INDEX jsonLearnIndex ON JSON_LEARN(lucene) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + mappingStr + "'}");
+        int i = 0;
+        for (JsonNode kid : jsonVal.getElements()) {
+            StringWriter sw = new StringWriter();
+            PrintWriter writer = new PrintWriter(sw);
+            formatJsonNode(kid, writer, 0);
+            writer.flush();
+            getSession().execute("insert into JSON_LEARN (key,jsonCol) values (" + (i++ + 1) + ",'" + sw.toString() + "')");
+        }
+        //numeric queries on the learned fields match all the rows, including the row they were learned from
+        Assert.assertEquals(2, countResults("JSON_LEARN", "lucene = '" + gtq("age", "35") + "'", true));
+        Assert.assertEquals(2, countResults("JSON_LEARN", "lucene = '" + q("age", "[30 TO 36]") + "'", true));
+        Assert.assertEquals(1, countResults("JSON_LEARN", "lucene = '" + mq("age", "40") + "'", true));
+        Assert.assertEquals(2, countResults("JSON_LEARN", "lucene = '" + gtq("latitude", "12.5") + "'", true));
+        Map<String, Map<String, Properties.Type>> learned = new LearnedMappings(LearnedMappings.file(learnKeyspace.toLowerCase(), "json_learn", "jsonLearnIndex")).getColumns();
+        Assert.assertEquals(Properties.Type.bigint, learned.get("jsoncol").get("age"));
+        Assert.assertEquals(Properties.Type.bigdecimal, learned.get("jsoncol").get("latitude"));
+        Assert.assertNull(learned.get("jsoncol").get("name"));
+        //price is learned as bigint, then a decimal and a string are indexed by their json type with their rows
+        getSession().execute("insert into JSON_LEARN (key,jsonCol) values (100,'{\"price\":10,\"item\":\"widget\"}')");
+        getSession().execute("insert into JSON_LEARN (key,jsonCol) values (101,'{\"price\":10.5,\"item\":\"widget\"}')");
+        getSession().execute("insert into JSON_LEARN (key,jsonCol) values (102,'{\"price\":\"ten\",\"item\":\"widget\"}')");
+        Assert.assertEquals(3, countResults("JSON_LEARN", "lucene = '" + q("item", "widget") + "'", true));
+        Assert.assertEquals(1, countResults("JSON_LEARN", "lucene = '" + mq("price", "10") + "'", true));
+        Assert.assertEquals(Properties.Type.bigint, new LearnedMappings(LearnedMappings.file(learnKeyspace.toLowerCase(), "json_learn", "jsonLearnIndex")).getColumns().get("jsoncol").get("price"));
+    }
+
+    private String nq(String path, String... fieldValues) {
+        StringBuilder must = new StringBuilder();
+        for (int i = 0; i < fieldValues.length; i += 2) {
+            if (i > 0) must.append(',');
+            must.append(String.format("{type:\"match\", field:\"%s\", value:\"%s\"}", fieldValues[i], fieldValues[i + 1]));
+        }
+        return String.format("{ query:{ type:\"nested\", path:\"%s\", must:[%s] }}", path, must);
+    }
+
+    @Test
+    public void shouldTokenizeJsonWithDeweyIds() throws Exception {
+        String json = "{\"a\":1,\"b\":[\"x Y\",true,null],\"C\":{\"d\":\"z\"}}";
+        TokenStream stream = new DeweyIdAnalyzer(Version.LUCENE_48).tokenStream("jsoncol", json);
+        CharTermAttribute termAtt = stream.getAttribute(CharTermAttribute.class);
+        PayloadAttribute payloadAtt = stream.getAttribute(PayloadAttribute.class);
+        StringBuilder tokens = new StringBuilder();
+        stream.reset();
+        while (stream.incrementToken()) {
+            tokens.append(termAtt).append(':').append(DeweyTokenizer.decodeLevel(payloadAtt.getPayload())).append(' ');
+        }
+        stream.end();
+        stream.close();
+        Assert.assertEquals("a:0.0. 1:0.0.0. b:0.1. x:0.1.0.0. y:0.1.0.0. true:0.1.0.1. c:0.2. d:0.2.0.0. z:0.2.0.0.0. ", tokens.toString());
+    }
+
     private int numberOfFieldsWithKey(String key, List<Field> fields) {
         int size = 0;
         for (Field field : fields) {
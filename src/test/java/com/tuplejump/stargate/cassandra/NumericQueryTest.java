@@ -1,9 +1,30 @@
 package com.tuplejump.stargate.cassandra;
 
+import com.tuplejump.stargate.RowIndex;
+import com.tuplejump.stargate.lucene.Indexer;
+import com.tuplejump.stargate.lucene.Options;
+import com.tuplejump.stargate.lucene.SearcherCallback;
+import com.tuplejump.stargate.lucene.query.Search;
 import com.tuplejump.stargate.util.CQLUnitD;
 import junit.framework.Assert;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * User: satya
  */
@@ -23,6 +44,30 @@ public class NumericQueryTest extends IndexTestBase {
             Assert.assertEquals(2, countResults("TAG", "state = '" + q("gdp", "3") + "'", true));
             Assert.assertEquals(3, countResults("TAG", "state = '" + gtq("gdp", "2") + "'", true));
             Assert.assertEquals(5, countResults("TAG", "state = '" + ltEq("gdp", "2") + "'", true));
+            String sorted = "{ query:{ type:\"range\", field:\"gdp\", lower:\"0\" }, sort:{ fields:[{field:\"gdp\",reverse:true}] }}";
+            Assert.assertEquals(8, countResults("TAG", "state = '" + sorted + "'", true));
+            //rows are only sorted within each token range the query is split into, so the order is checked on the searcher.
+            RowIndex index = (RowIndex) Keyspace.open(keyspace.toLowerCase()).getColumnFamilyStore("tag").indexManager.getIndexesByNames(Collections.singleton("gdpindex")).iterator().next();
+            Options options = index.getRowIndexSupport().options;
+            Search search = Search.fromJson(sorted);
+            final Query query = search.query(options);
+            final Sort sort = search.sort(options);
+            List<Integer> gdps = index.getRowIndexSupport().indexer.search(new SearcherCallback<List<Integer>>() {
+                @Override
+                public List<Integer> doWithSearcher(IndexSearcher searcher) throws IOException {
+                    TopDocs topDocs = PerRowSearchSupport.topDocs(searcher, query, sort, null, 10);
+                    List<Integer> gdps = new ArrayList<>();
+                    for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                        gdps.add((Integer) ((FieldDoc) scoreDoc).fields[0]);
+                    }
+                    //the sort reads the doc values of the sortable field, which are not loaded into the field cache.
+                    for (AtomicReaderContext leaf : searcher.getIndexReader().leaves()) {
+                        Assert.assertFalse(isCached("gdp", leaf.reader().getCoreCacheKey()));
+                    }
+                    return gdps;
+                }
+            });
+            Assert.assertEquals(Arrays.asList(4, 3, 3, 2, 2, 1, 1, 1), gdps);
         } finally {
             dropTable(keyspace, "TAG");
             dropKS(keyspace);
@@ -30,10 +75,99 @@ public class NumericQueryTest extends IndexTestBase {
 
     }
 
+    @Test
+    public void shouldTerminateSearchesSortedByTheIndexSortEarly() throws Exception {
+        String sortKeyspace = "dummyks3nsort";
+        try {
+            createKS(sortKeyspace);
+            //tiny segments merged two at a time, so that sorted segments are merged while rows are inserted.
+            String options = "{\"indexSort\":{\"fields\":[{\"field\":\"_cf_ts\",\"reverse\":true}]}," +
+                    "\"indexWriter\":{\"maxBufferedDocs\":2,\"segmentsPerTier\":2,\"maxMergeAtOnce\":2}," +
+                    "\"fields\":{\"gdp\":{\"type\":\"integer\"}}}";
+            getSession().execute("USE " + sortKeyspace + ";");
+            getSession().execute("CREATE TABLE SORTED(key int primary key, state varchar, gdp int)");
+            getSession().execute("CREATE CUSTOM INDEX gdpsort ON SORTED(state) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            RowIndex index = (RowIndex) Keyspace.open(sortKeyspace).getColumnFamilyStore("sorted").indexManager.getIndexesByNames(Collections.singleton("gdpsort")).iterator().next();
+            final Indexer indexer = index.getRowIndexSupport().indexer;
+            final Sort indexSort = indexer.getIndexSort();
+            Assert.assertNotNull(indexSort);
+
+            int rows = 0;
+            for (; rows < 40; rows++) {
+                getSession().execute("insert into " + sortKeyspace + ".SORTED (key,gdp) values (" + rows + "," + rows + ")");
+            }
+            SearcherCallback<Boolean> terminatedEarly = new SearcherCallback<Boolean>() {
+                @Override
+                public Boolean doWithSearcher(IndexSearcher searcher) throws IOException {
+                    Query all = new MatchAllDocsQuery();
+                    TopDocs early = PerRowSearchSupport.topDocs(searcher, all, indexSort, indexSort, 3);
+                    TopDocs full = searcher.search(all, null, 3, indexSort);
+                    Assert.assertEquals(full.scoreDocs.length, early.scoreDocs.length);
+                    for (int i = 0; i < full.scoreDocs.length; i++) {
+                        Assert.assertEquals(full.scoreDocs[i].doc, early.scoreDocs[i].doc);
+                    }
+                    //sorted segments stop after 3 hits, so fewer hits than the matching docs are collected.
+                    return early.totalHits < full.totalHits;
+                }
+            };
+            long deadline = System.currentTimeMillis() + 30000;
+            boolean terminated = indexer.search(terminatedEarly);
+            while (!terminated && System.currentTimeMillis() < deadline) {
+                //merges finish in the background and are searchable after the next write.
+                Thread.sleep(100);
+                getSession().execute("insert into " + sortKeyspace + ".SORTED (key,gdp) values (" + rows + "," + rows + ")");
+                rows++;
+                terminated = indexer.search(terminatedEarly);
+            }
+            Assert.assertTrue(terminated);
+        } finally {
+            dropTable(sortKeyspace, "SORTED");
+            dropKS(sortKeyspace);
+        }
+    }
+
+    @Test
+    public void shouldRunWarmersBeforeSearchersArePublished() throws Exception {
+        String warmKeyspace = "dummyks3nwarm";
+        try {
+            createKS(warmKeyspace);
+            //sorting by a field without doc values loads it into the field cache, which only the warmer does here.
+            String options = "{\"warmers\":[{\"query\":{\"type\":\"range\",\"field\":\"population\",\"lower\":\"0\"},\"sort\":{\"fields\":[{\"field\":\"population\"}]}}]," +
+                    "\"fields\":{\"population\":{\"type\":\"integer\"}}}";
+            getSession().execute("USE " + warmKeyspace + ";");
+            getSession().execute("CREATE TABLE WARMED(key int primary key, state varchar, population int)");
+            getSession().execute("CREATE CUSTOM INDEX populationindex ON WARMED(state) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            Assert.assertFalse(isCached("population"));
+            for (int i = 1; i <= 10; i++) {
+                getSession().execute("insert into " + warmKeyspace + ".WARMED (key,population) values (" + i + "," + i * 1000 + ")");
+            }
+            //the search reopens the searcher, which is warmed before it is used.
+            Assert.assertEquals(10, countResults("WARMED", "state = '" + gtq("population", "0") + "'", true));
+            Assert.assertTrue(isCached("population"));
+        } finally {
+            dropTable(warmKeyspace, "WARMED");
+            dropKS(warmKeyspace);
+        }
+    }
+
+    private boolean isCached(String field) {
+        for (FieldCache.CacheEntry entry : FieldCache.DEFAULT.getCacheEntries()) {
+            if (field.equals(entry.getFieldName())) return true;
+        }
+        return false;
+    }
+
+    private boolean isCached(String field, Object readerKey) {
+        for (FieldCache.CacheEntry entry : FieldCache.DEFAULT.getCacheEntries()) {
+            if (field.equals(entry.getFieldName()) && readerKey == entry.getReaderKey()) return true;
+        }
+        return false;
+    }
+
     private void createTableAndIndexForCol() {
         String options = "{\n" +
                 "\t\"fields\":{\n" +
-                "\t\t\"gdp\":{\"type\":\"integer\"}\n" +
+                "\t\t\"gdp\":{\"type\":\"integer\",\"sortable\":true}\n" +
 
                 "\t}\n" +
                 "}\n";
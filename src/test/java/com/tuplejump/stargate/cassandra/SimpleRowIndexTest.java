@@ -1,10 +1,45 @@
 package com.tuplejump.stargate.cassandra;
 
+import com.tuplejump.stargate.RowIndex;
+import com.tuplejump.stargate.lucene.IndexScheduler;
+import com.tuplejump.stargate.lucene.IndexWriterSettings;
+import com.tuplejump.stargate.lucene.Options;
+import com.tuplejump.stargate.lucene.Properties;
+import com.tuplejump.stargate.lucene.SearcherCallback;
 import com.tuplejump.stargate.util.CQLUnitD;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Directories;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.service.StorageService;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
 
 /**
  * User: satya
@@ -48,6 +83,237 @@ public class SimpleRowIndexTest extends IndexTestBase {
         }
     }
 
+    @Test
+    public void shouldRejectInvalidIndexWriterSettings() throws Exception {
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            String options = "{\"indexWriter\":{\"ramBufferSizeMB\":0},\"fields\":{\"tags\":{}}}";
+            try {
+                getSession().execute("CREATE CUSTOM INDEX badwriter ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+                fail("Index with invalid indexWriter settings should not be created");
+            } catch (Exception e) {
+                assertThat(e.getMessage().contains("ramBufferSizeMB"), is(true));
+            }
+        } finally {
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldApplyIndexWriterSettings() throws Exception {
+        String settings = "{\"ramBufferSizeMB\":32,\"mergeThreads\":1,\"maxMergeCount\":2,\"mergeMBPerSec\":20,\"directory\":\"mmap\"}";
+        IndexWriterConfig config = new IndexWriterConfig(Properties.luceneVersion, new KeywordAnalyzer());
+        Options.jsonMapper.readValue(settings, IndexWriterSettings.class).apply(config);
+        assertThat(config.getRAMBufferSizeMB(), is(32.0));
+        ConcurrentMergeScheduler mergeScheduler = (ConcurrentMergeScheduler) config.getMergeScheduler();
+        assertThat(mergeScheduler.getMaxThreadCount(), is(1));
+        assertThat(mergeScheduler.getMaxMergeCount(), is(2));
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            String options = "{\"indexWriter\":" + settings + ",\"fields\":{\"tags\":{},\"state\":{}}}";
+            getSession().execute("CREATE CUSTOM INDEX writerprofile ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            for (int key = 1; key <= 10; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", true), is(10));
+            RowIndex index = (RowIndex) Keyspace.open(keyspace).getColumnFamilyStore("tag2").indexManager.getIndexesByNames(Collections.singleton("writerprofile")).iterator().next();
+            Directory directory = index.getIndexer().search(new SearcherCallback<Directory>() {
+                @Override
+                public Directory doWithSearcher(IndexSearcher searcher) throws IOException {
+                    return ((DirectoryReader) searcher.getIndexReader()).directory();
+                }
+            });
+            //NRT cache over merge throttling over mmap.
+            Directory throttled = ((NRTCachingDirectory) directory).getDelegate();
+            assertThat(((RateLimitedDirectoryWrapper) throttled).getMaxWriteMBPerSec(IOContext.Context.MERGE), is(20.0));
+            assertThat(((RateLimitedDirectoryWrapper) throttled).getDelegate() instanceof MMapDirectory, is(true));
+        } finally {
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldCountOnlyTheRowsIndexedByTheBuild() throws Exception {
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            for (int key = 1; key <= 1000; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            String options = "{\"fields\":{\"tags\":{},\"state\":{}}}";
+            getSession().execute("CREATE CUSTOM INDEX counted ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            //written while the build runs.
+            for (int key = 1001; key <= 1020; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            RowIndex index = (RowIndex) Keyspace.open(keyspace).getColumnFamilyStore("tag2").indexManager.getIndexesByNames(Collections.singleton("counted")).iterator().next();
+            assertThat(index.awaitIndexBuilt(30000), is(true));
+            assertThat(index.getRowsIndexedDuringBuild(), is(1000L));
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", false), is(1020));
+        } finally {
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldReindexRowsChangedDuringParallelBuild() throws Exception {
+        System.setProperty(RowIndex.BUILD_THREADS_PROPERTY, "2");
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            for (int key = 1; key <= 3000; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            String options = "{\"fields\":{\"tags\":{},\"state\":{}}}";
+            getSession().execute("CREATE CUSTOM INDEX parallel ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            //updated, deleted and new rows while the build runs.
+            for (int key = 1; key <= 50; key++) {
+                getSession().execute("update " + keyspace + ".TAG2 set tags='hello2 tag1' where key = " + key);
+                getSession().execute("delete from " + keyspace + ".TAG2 where key = " + (key + 50));
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + (key + 3000) + ",'hello2 tag1', 'CA')");
+            }
+            RowIndex index = (RowIndex) Keyspace.open(keyspace).getColumnFamilyStore("tag2").indexManager.getIndexesByNames(Collections.singleton("parallel")).iterator().next();
+            assertThat(index.awaitIndexBuilt(60000), is(true));
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", false), is(2900));
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello2") + "'", false), is(100));
+            //one document for each row, none left from the build for the changed rows.
+            int docs = index.getIndexer().search(new SearcherCallback<Integer>() {
+                @Override
+                public Integer doWithSearcher(IndexSearcher searcher) throws IOException {
+                    return searcher.getIndexReader().numDocs();
+                }
+            });
+            assertThat(docs, is(3000));
+        } finally {
+            System.clearProperty(RowIndex.BUILD_THREADS_PROPERTY);
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldOpenIndexBuiltOffline() throws Exception {
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            for (int key = 1; key <= 20; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            getSession().execute("delete from " + keyspace + ".TAG2 where key = 20");
+            ColumnFamilyStore table = Keyspace.open(keyspace).getColumnFamilyStore("tag2");
+            table.forceBlockingFlush();
+            String options = "{\"fields\":{\"tags\":{},\"state\":{}}}";
+            File sstableDir = table.getSSTables().iterator().next().descriptor.directory;
+            OfflineIndexBuilder builder = new OfflineIndexBuilder(table.metadata, StorageService.getPartitioner(), "magic", "offline", options);
+            assertThat(builder.build(OfflineIndexBuilder.dataFiles(sstableDir.getPath())), is(19L));
+            File marker = OfflineIndexBuilder.builtMarker(keyspace, "tag2", "offline");
+            assertThat(marker.exists(), is(true));
+
+            //the node opens the index as built, without building it again.
+            getSession().execute("CREATE CUSTOM INDEX offline ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            RowIndex index = (RowIndex) table.indexManager.getIndexesByNames(Collections.singleton("offline")).iterator().next();
+            assertThat(index.isBuilt(), is(true));
+            assertThat(index.getRowsIndexedDuringBuild(), is(0L));
+            assertThat(marker.exists(), is(false));
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", true), is(19));
+            getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (21,'hello1 tag1', 'CA')");
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", true), is(20));
+        } finally {
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldCleanupRowsOutsideRanges() throws Exception {
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            String options = "{\"fields\":{\"tags\":{},\"state\":{}}}";
+            getSession().execute("CREATE CUSTOM INDEX cleanup ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            IPartitioner partitioner = StorageService.getPartitioner();
+            List<Token> tokens = new ArrayList<>();
+            for (int key = 1; key <= 10; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+                tokens.add(partitioner.getToken(Int32Type.instance.decompose(key)));
+            }
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", true), is(10));
+            Collections.sort(tokens);
+            //this node now owns only the lower half of the keys.
+            Collection<Range<Token>> ranges = Collections.singleton(new Range<>(partitioner.getMinimumToken(), tokens.get(4)));
+            RowIndex index = (RowIndex) Keyspace.open(keyspace).getColumnFamilyStore("tag2").indexManager.getIndexesByNames(Collections.singleton("cleanup")).iterator().next();
+            assertThat(index.cleanup(ranges), is(5L));
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", true), is(5));
+            assertThat(index.cleanup(), is(0L));
+        } finally {
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldLinkIndexIntoSnapshot() throws Exception {
+        try {
+            createKS(keyspace);
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            String options = "{\"fields\":{\"tags\":{},\"state\":{}}}";
+            getSession().execute("CREATE CUSTOM INDEX snap ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            for (int key = 1; key <= 10; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            StorageService.instance.takeColumnFamilySnapshot(keyspace, "tag2", "sgtest");
+            //commits made right after the snapshot are not linked into it.
+            for (int key = 11; key <= 15; key++) {
+                getSession().execute("insert into " + keyspace + ".TAG2 (key,tags,state) values (" + key + ",'hello1 tag1', 'CA')");
+            }
+            Keyspace.open(keyspace).getColumnFamilyStore("tag2").forceBlockingFlush();
+            File snapshot = IndexSnapshots.indexDir(IndexSnapshots.snapshots(keyspace, "tag2").get("sgtest"), "snap");
+            long waitUntil = System.currentTimeMillis() + 4 * IndexScheduler.SNAPSHOT_CHECK_INTERVAL_MS;
+            while (!snapshot.exists() && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(100);
+            }
+            try (Directory dir = FSDirectory.open(snapshot); DirectoryReader reader = DirectoryReader.open(dir)) {
+                assertThat(reader.numDocs(), is(10));
+            }
+
+            //restores the table and then the index from the snapshot, which the dropped table leaves behind.
+            getSession().execute("DROP TABLE TAG2");
+            getSession().execute("CREATE TABLE TAG2(key int, tags varchar, state varchar, magic text, PRIMARY KEY (key))");
+            File snapshotDir = IndexSnapshots.snapshots(keyspace, "tag2").get("sgtest");
+            File dataDir = Directories.create(keyspace, "tag2").getCFDirectories().get(0);
+            for (File sstableFile : snapshotDir.listFiles()) {
+                if (sstableFile.isFile()) Files.copy(sstableFile.toPath(), new File(dataDir, sstableFile.getName()).toPath());
+            }
+            ColumnFamilyStore table = Keyspace.open(keyspace).getColumnFamilyStore("tag2");
+            table.loadNewSSTables();
+            assertThat(IndexSnapshots.restore(keyspace, "tag2", "snap", "sgtest"), greaterThan(0));
+            File marker = OfflineIndexBuilder.builtMarker(keyspace, "tag2", "snap");
+            assertThat(marker.exists(), is(true));
+            getSession().execute("CREATE CUSTOM INDEX snap ON TAG2(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            RowIndex index = (RowIndex) table.indexManager.getIndexesByNames(Collections.singleton("snap")).iterator().next();
+            assertThat(index.isBuilt(), is(true));
+            assertThat(index.getRowsIndexedDuringBuild(), is(0L));
+            assertThat(marker.exists(), is(false));
+            assertThat(countResults("TAG2", "magic = '" + q("tags", "tags:hello1") + "'", true), is(10));
+        } finally {
+            StorageService.instance.clearSnapshot("sgtest", keyspace);
+            dropTable(keyspace, "TAG2");
+            dropKS(keyspace);
+        }
+    }
+
     private void createTableAndIndexForRow() {
         String options = "{\n" +
                 "\t\"fields\":{\n" +
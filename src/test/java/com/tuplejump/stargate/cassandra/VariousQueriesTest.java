@@ -34,6 +34,77 @@ public class VariousQueriesTest extends IndexTestBase {
         Assert.assertEquals(3, countResults("sample_table", "magic = '" + gtq("otherid", "9") + "'", true));
     }
 
+    @Test
+    public void shouldMatchPrefixesWithAutocomplete() throws Exception {
+        String autocompleteKeyspace = "dummyksAutocomplete";
+        try {
+            createKS(autocompleteKeyspace);
+            String options = "{\"fields\":{" +
+                    "\"title\":{\"type\":\"text\",\"autocomplete\":{\"minGram\":1,\"maxGram\":4}}," +
+                    "\"code\":{\"autocomplete\":{}}," +
+                    "\"jsonCol\":{\"type\":\"object\",\"fields\":{\"city\":{\"type\":\"string\",\"autocomplete\":{\"maxGram\":3}}}}" +
+                    "}}";
+            getSession().execute("USE " + autocompleteKeyspace + ";");
+            getSession().execute("CREATE TABLE AUTOCOMPLETE(key int, title text, code varchar, jsonCol text, magic text, PRIMARY KEY (key))");
+            getSession().execute("CREATE CUSTOM INDEX autocompleteIndex ON AUTOCOMPLETE(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            getSession().execute("INSERT INTO AUTOCOMPLETE (key, title, code, jsonCol) VALUES (1, 'Catalina island', 'CA-01', '{\"city\":\"Madrid\"}')");
+            getSession().execute("INSERT INTO AUTOCOMPLETE (key, title, code, jsonCol) VALUES (2, 'Cathedral of Seville', 'CA-02', '{\"city\":\"Manila\"}')");
+            getSession().execute("INSERT INTO AUTOCOMPLETE (key, title, code, jsonCol) VALUES (3, 'Machu Picchu', 'MA-01', '{\"city\":\"Cusco\"}')");
+
+            //prefixes which are edge n-grams of the terms
+            Assert.assertEquals(2, countResults("AUTOCOMPLETE", "magic = '" + pfq("title", "cat") + "'", true));
+            Assert.assertEquals(1, countResults("AUTOCOMPLETE", "magic = '" + pfq("title", "p") + "'", true));
+            Assert.assertEquals(1, countResults("AUTOCOMPLETE", "magic = '" + pfq("title", "sev") + "'", true));
+            Assert.assertEquals(2, countResults("AUTOCOMPLETE", "magic = '" + pfq("code", "ca") + "'", true));
+            Assert.assertEquals(1, countResults("AUTOCOMPLETE", "magic = '" + pfq("code", "ma") + "'", true));
+            Assert.assertEquals(2, countResults("AUTOCOMPLETE", "magic = '" + pfq("city", "ma") + "'", true));
+            //prefixes longer than maxGram are expanded over the terms of the field
+            Assert.assertEquals(1, countResults("AUTOCOMPLETE", "magic = '" + pfq("title", "catal") + "'", true));
+            Assert.assertEquals(1, countResults("AUTOCOMPLETE", "magic = '" + pfq("city", "madr") + "'", true));
+            Assert.assertEquals(0, countResults("AUTOCOMPLETE", "magic = '" + pfq("title", "catx") + "'", true));
+        } finally {
+            dropTable(autocompleteKeyspace, "AUTOCOMPLETE");
+            dropKS(autocompleteKeyspace);
+        }
+    }
+
+    @Test
+    public void shouldMatchLeadingWildcardsWithReverseIndex() throws Exception {
+        String reverseKeyspace = "dummyksReverse";
+        try {
+            createKS(reverseKeyspace);
+            String options = "{\"fields\":{" +
+                    "\"email\":{\"type\":\"string\",\"reverseIndex\":true}," +
+                    "\"title\":{\"reverseIndex\":true}," +
+                    "\"jsonCol\":{\"type\":\"object\",\"fields\":{\"city\":{\"type\":\"string\",\"reverseIndex\":true}}}" +
+                    "}}";
+            getSession().execute("USE " + reverseKeyspace + ";");
+            getSession().execute("CREATE TABLE REVERSE(key int, email varchar, title text, jsonCol text, magic text, PRIMARY KEY (key))");
+            getSession().execute("CREATE CUSTOM INDEX reverseIndex ON REVERSE(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            getSession().execute("INSERT INTO REVERSE (key, email, title, jsonCol) VALUES (1, 'alice@gmail.com', 'Catalina island', '{\"city\":\"Madrid\"}')");
+            getSession().execute("INSERT INTO REVERSE (key, email, title, jsonCol) VALUES (2, 'bob@gmail.com', 'Cathedral of Seville', '{\"city\":\"Manila\"}')");
+            getSession().execute("INSERT INTO REVERSE (key, email, title, jsonCol) VALUES (3, 'carol@yahoo.com', 'Machu Picchu', '{\"city\":\"Cusco\"}')");
+
+            //suffixes, matched as prefixes of the reversed terms
+            Assert.assertEquals(2, countResults("REVERSE", "magic = '" + wq("email", "*@gmail.com") + "'", true));
+            Assert.assertEquals(3, countResults("REVERSE", "magic = '" + wq("email", "*.com") + "'", true));
+            Assert.assertEquals(1, countResults("REVERSE", "magic = '" + wq("title", "*land") + "'", true));
+            Assert.assertEquals(1, countResults("REVERSE", "magic = '" + wq("city", "*rid") + "'", true));
+            //leading wildcards with more wildcards, matched reversed
+            Assert.assertEquals(2, countResults("REVERSE", "magic = '" + wq("email", "*@g?ail.com") + "'", true));
+            Assert.assertEquals(1, countResults("REVERSE", "magic = '" + wq("email", "?arol@*.com") + "'", true));
+            //trailing wildcards are matched against the terms of the field
+            Assert.assertEquals(3, countResults("REVERSE", "magic = '" + wq("email", "*@*") + "'", true));
+            //lucene syntax
+            Assert.assertEquals(2, countResults("REVERSE", "magic = '" + q("email", "*@gmail.com") + "'", true));
+            Assert.assertEquals(3, countResults("REVERSE", "magic = '" + q("email", "email:*@yahoo.com OR email:*@gmail.com") + "'", true));
+            Assert.assertEquals(1, countResults("REVERSE", "magic = '" + q("title", "*ral AND email:*.com") + "'", true));
+        } finally {
+            dropTable(reverseKeyspace, "REVERSE");
+            dropKS(reverseKeyspace);
+        }
+    }
+
     private void createTableAndIndexForRow() {
         //add idx options with DOCS_AND_FREQS_AND_POSITIONS for phrase queries.
         String options = "{\n" +
@@ -62,6 +62,39 @@ public class WideRowTest extends IndexTestBase {
         }
     }
 
+    @Test
+    public void shouldDeleteByClusteringPrefixAndPartition() throws Exception {
+        try {
+            createKS(keyspace);
+            String options = "{\n" +
+                    "\t\"fields\":{\n" +
+                    "\t\t\"tags\":{\"type\":\"text\"}\n" +
+                    "\t}\n" +
+                    "}\n";
+            getSession().execute("USE " + keyspace + ";");
+            getSession().execute("CREATE TABLE TAG3(key int, day int, seq int, tags varchar, magic text, PRIMARY KEY(key, day, seq))");
+            getSession().execute("CREATE CUSTOM INDEX tags3 ON TAG3(magic) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+            for (int key = 1; key <= 3; key++) {
+                for (int day = 1; day <= 2; day++) {
+                    for (int seq = 1; seq <= 2; seq++) {
+                        getSession().execute("insert into " + keyspace + ".TAG3 (key,day,seq,tags) values (" + key + "," + day + "," + seq + ",'hello" + key + "')");
+                    }
+                }
+            }
+            Assert.assertEquals(12, countResults("TAG3", "magic = '" + q("tags", "hello*") + "'", true));
+            getSession().execute("delete from " + keyspace + ".TAG3 where key=1 and day=1");
+            Assert.assertEquals(2, countResults("TAG3", "magic = '" + q("tags", "hello1") + "'", true));
+            getSession().execute("delete from " + keyspace + ".TAG3 where key=2");
+            Assert.assertEquals(0, countResults("TAG3", "magic = '" + q("tags", "hello2") + "'", true));
+            getSession().execute("insert into " + keyspace + ".TAG3 (key,day,seq,tags) values (2,1,1,'hello2')");
+            Assert.assertEquals(1, countResults("TAG3", "magic = '" + q("tags", "hello2") + "'", true));
+            Assert.assertEquals(7, countResults("TAG3", "magic = '" + q("tags", "hello*") + "'", true));
+        } finally {
+            dropTable(keyspace, "TAG3");
+            dropKS(keyspace);
+        }
+    }
+
     private void createTableAndIndexForRow() {
         String options = "{\n" +
                 "\t\"numShards\":1024,\n" +
@@ -0,0 +1,207 @@
+package com.tuplejump.stargate.lucene;
+
+import com.tuplejump.stargate.Constants;
+import com.tuplejump.stargate.RowIndex;
+import com.tuplejump.stargate.cassandra.IndexTestBase;
+import com.tuplejump.stargate.util.CQLUnitD;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User: satya
+ * <p/>
+ * Tests for the node wide search executor, indexing memory budget and scheduler shared by all indexes.
+ */
+public class NodeResourcesTest extends IndexTestBase {
+    String keyspace = "dummyksnode";
+
+    public NodeResourcesTest() {
+        cassandraCQLUnit = CQLUnitD.getCQLUnit(null);
+    }
+
+    @Test
+    public void shouldSearchSegmentsConcurrently() throws Exception {
+        try {
+            createKS(keyspace);
+            //a segment every two rows and no merges, so that the index has many segments.
+            NearRealTimeIndexer indexer = createTableAndIndex("segments", "\"maxBufferedDocs\":2,\"segmentsPerTier\":50");
+            for (int i = 0; i < 20; i++) {
+                getSession().execute("INSERT INTO " + keyspace + ".segments (key, state, gdp) VALUES (" + i + ", 'CA', " + i + ")");
+            }
+            final AtomicInteger segmentSearches = new AtomicInteger();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+                @Override
+                protected void beforeExecute(Thread t, Runnable r) {
+                    segmentSearches.incrementAndGet();
+                }
+            };
+            try {
+                indexer.search(new SearcherCallback<Void>() {
+                    @Override
+                    public Void doWithSearcher(IndexSearcher searcher) throws IOException {
+                        Assert.assertTrue(searcher instanceof SegmentTimingIndexSearcher);
+                        int segments = searcher.getIndexReader().leaves().size();
+                        Assert.assertTrue(segments > 1);
+                        IndexSearcher concurrent = new SegmentTimingIndexSearcher(searcher.getIndexReader(), executor);
+                        Query all = new MatchAllDocsQuery();
+                        Sort latest = new Sort(new SortField(Constants.CF_TS_DOC_VAL, SortField.Type.LONG, true));
+                        assertSameHits(searcher.search(all, 5), concurrent.search(all, 5));
+                        assertSameHits(searcher.search(all, null, 5, latest), concurrent.search(all, null, 5, latest));
+                        //each search runs every segment as a task on the executor.
+                        Assert.assertEquals(2 * segments, segmentSearches.get());
+                        return null;
+                    }
+                });
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            dropTable(keyspace, "segments");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldFlushTheLargestWritersOverTheMemoryBudget() throws Exception {
+        IndexingMemoryManager manager = null;
+        NearRealTimeIndexer large = null;
+        NearRealTimeIndexer small = null;
+        try {
+            createKS(keyspace);
+            //not reopened by the scheduler, so documents stay in the RAM buffer.
+            large = createTableAndIndex("large", "\"refreshIntervalMs\":3600000");
+            small = createTableAndIndex("small", "\"refreshIntervalMs\":3600000");
+            for (int i = 0; i < 50; i++) {
+                getSession().execute("INSERT INTO " + keyspace + ".large (key, state, gdp) VALUES (" + i + ", 'CA', " + i + ")");
+            }
+            for (int i = 0; i < 2; i++) {
+                getSession().execute("INSERT INTO " + keyspace + ".small (key, state, gdp) VALUES (" + i + ", 'CA', " + i + ")");
+            }
+            long largeBytes = large.getRamBufferBytes();
+            long smallBytes = small.getRamBufferBytes();
+            Assert.assertTrue(largeBytes > smallBytes);
+            Assert.assertTrue(smallBytes > 0);
+
+            //flushing the largest writer is enough to get back under this budget. Only the node wide manager is scheduled.
+            manager = new IndexingMemoryManager(smallBytes);
+            manager.register(large);
+            manager.register(small);
+            Assert.assertEquals(largeBytes + smallBytes, manager.getUsedBytes());
+            manager.check();
+            Assert.assertTrue(large.getRamBufferBytes() < largeBytes);
+            Assert.assertEquals(smallBytes, small.getRamBufferBytes());
+            Assert.assertTrue(manager.getUsedBytes() <= manager.getBudgetBytes());
+        } finally {
+            if (manager != null) {
+                manager.unregister(large);
+                manager.unregister(small);
+            }
+            dropTable(keyspace, "large");
+            dropTable(keyspace, "small");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldReopenAndCommitIndexesFromTheScheduler() throws Exception {
+        try {
+            createKS(keyspace);
+            NearRealTimeIndexer indexer = createTableAndIndex("scheduled", "\"refreshIntervalMs\":200,\"commitIntervalMs\":500");
+            for (int i = 0; i < 5; i++) {
+                getSession().execute("INSERT INTO " + keyspace + ".scheduled (key, state, gdp) VALUES (" + i + ", 'CA', " + i + ")");
+            }
+            //nothing searches the index, so only the scheduler makes the rows searchable and durable.
+            long waitUntil = System.currentTimeMillis() + 10000;
+            while ((searchableDocs(indexer) < 5 || committedDocs(indexer) < 5) && System.currentTimeMillis() < waitUntil) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(5, searchableDocs(indexer));
+            Assert.assertEquals(5, committedDocs(indexer));
+            Assert.assertFalse(indexer.indexWriter.getIndexWriter().hasUncommittedChanges());
+        } finally {
+            dropTable(keyspace, "scheduled");
+            dropKS(keyspace);
+        }
+    }
+
+    @Test
+    public void shouldNotFindExpiredRows() throws Exception {
+        try {
+            createKS(keyspace);
+            NearRealTimeIndexer indexer = createTableAndIndex("expiring", "");
+            for (int i = 0; i < 4; i++) {
+                String ttl = i < 2 ? "" : " USING TTL 1";
+                getSession().execute("INSERT INTO " + keyspace + ".expiring (key, state, gdp) VALUES (" + i + ", 'CA', " + i + ")" + ttl);
+            }
+            Assert.assertEquals(4, countResults("expiring", "state = '" + gtq("gdp", "-1") + "'", true));
+            Thread.sleep(2500);
+            //hidden from searches until the sweep deletes them.
+            Assert.assertEquals(2, countResults("expiring", "state = '" + gtq("gdp", "-1") + "'", true));
+            Assert.assertEquals(4, searchableDocs(indexer));
+
+            Assert.assertTrue(indexer.deleteExpired());
+            indexer.flushRamBuffer();
+            Assert.assertEquals(2, searchableDocs(indexer));
+            //nothing left to delete, so the sweep leaves the writer alone.
+            long generation = indexer.latest;
+            Assert.assertFalse(indexer.deleteExpired());
+            Assert.assertEquals(generation, indexer.latest);
+            Assert.assertEquals(2, countResults("expiring", "state = '" + gtq("gdp", "-1") + "'", true));
+        } finally {
+            dropTable(keyspace, "expiring");
+            dropKS(keyspace);
+        }
+    }
+
+    private int searchableDocs(NearRealTimeIndexer indexer) throws IOException {
+        IndexSearcher searcher = indexer.indexSearcherReferenceManager.acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            indexer.indexSearcherReferenceManager.release(searcher);
+        }
+    }
+
+    private int committedDocs(NearRealTimeIndexer indexer) throws IOException {
+        try (Directory dir = FSDirectory.open(indexer.file)) {
+            if (!DirectoryReader.indexExists(dir)) return 0;
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                return reader.numDocs();
+            }
+        }
+    }
+
+    private void assertSameHits(TopDocs expected, TopDocs actual) {
+        Assert.assertEquals(expected.totalHits, actual.totalHits);
+        Assert.assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+        for (int i = 0; i < expected.scoreDocs.length; i++) {
+            Assert.assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+        }
+    }
+
+    private NearRealTimeIndexer createTableAndIndex(String table, String indexWriter) {
+        String options = "{\"indexWriter\":{" + indexWriter + "},\"fields\":{\"gdp\":{\"type\":\"integer\"}}}";
+        getSession().execute("USE " + keyspace + ";");
+        getSession().execute("CREATE TABLE " + table + "(key int primary key, state varchar, gdp int)");
+        getSession().execute("CREATE CUSTOM INDEX " + table + "index ON " + table + "(state) USING 'com.tuplejump.stargate.RowIndex' WITH options ={'sg_options':'" + options + "'}");
+        RowIndex index = (RowIndex) Keyspace.open(keyspace).getColumnFamilyStore(table).indexManager.getIndexesByNames(Collections.singleton(table + "index")).iterator().next();
+        return (NearRealTimeIndexer) index.getIndexer();
+    }
+}